@@ -0,0 +1,41 @@
+/**
+ * File: AbortReason.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Why a transaction aborted. The servers send the reason as the word after
+ * ABORT in their response, e.g. ABORT PTC_RESPONSE_NO; this gives the Robot
+ * and the servers' statistics a fixed set of codes to count and compare.
+ */
+
+public enum AbortReason {
+	LOCAL_POLICY_FALSE, // A proof failed while running a query
+	LOCAL_POLICY_FALSE_2PV, // A proof failed in a 2PV round
+	LOCAL_POLICY_FALSE_2PVC, // A proof failed in a 2PVC round
+	LOCAL_AUTHORIZATION_FAIL, // A proof failed in a RUNAUTHS round
+	PTC_RESPONSE_NO, // An integrity check failed
+	PTC_RESPONSE_FALSE, // A proof failed in a PTC round
+	POLICY_INEQUALITY, // Participants used different policy versions
+	VIEW_CONSISTENCY_FAIL,
+	GLOBAL_CONSISTENCY_FAIL,
+	TXN_CONSISTENCY_FAIL,
+	UNKNOWN_MODE,
+	UNKNOWN_VALIDATION_MODE,
+	OTHER; // Not one of the above
+
+	/**
+	 * @param reason - The word after ABORT in a response
+	 *
+	 * @return AbortReason - the matching code, OTHER if there is none
+	 */
+	public static AbortReason parse(String reason) {
+		try {
+			return valueOf(reason);
+		}
+		catch (IllegalArgumentException iae) {
+			return OTHER;
+		}
+		catch (NullPointerException npe) {
+			return OTHER;
+		}
+	}
+}
@@ -12,25 +12,80 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CloudServer {
 	public static ArrayList<ServerID> serverList;
+	public static ArrayList<ServerID> replicaList; // Policy Server read replicas
+	public static int replicaCount = 0;
 	public int serverNumber;
-	private int serverPolicyVersion;
+	private volatile int serverPolicyVersion;
 	public static boolean verbose = false;
 	public static String proof;
 	public static int validationMode;
 	public static int policyPush;
 	public static int latencyMin;
 	public static int latencyMax;
+	public static String topologyFile = null;
+	public static Topology topology; // Latency of each link, from TOPO or LMIN/LMAX
 	public static boolean threadSleep;
+	public static boolean timerWheel = false;
+	public static boolean policySubscribe = true;
+	public static boolean singleFlight = true;
+	public static int singleFlightWindow = 0;
+	public static int policyLease = 0; // ms, 0 for no lease
+	public static boolean gossip = false;
+	private AtomicLong gossipAdvances = new AtomicLong();
+	public static int preprove = 0; // Background proving threads, 0 for none
+	public static String convergeHint = "NONE"; // Starting version of 2PV rounds
+	public static boolean accounting = false;
+	public static int sampleInterval = 0; // ms between samples, 0 for none
 	public static float integrityCheckSuccessRate;
 	public static float localAuthSuccessRate;
 	public static float globalAuthSuccessRate;
 	public static long workerSeed; // From RS3 of parameters file
+	public static boolean commitBatch = false;
+	public static int commitBatchWindow;
+	public static int commitBatchSize = 1;
+	// Service time distributions in us, defaults match the original constants
+	public static ServiceTime readTime = new ServiceTime("uniform", 1000, 3000);
+	public static ServiceTime writeTime = new ServiceTime("uniform", 12000, 20000);
+	public static ServiceTime authTime = new ServiceTime("uniform", 1000, 3000);
+	public static ServiceTime integrityTime = new ServiceTime("uniform", 1000, 3000);
+	public static int diskSlots = 0; // 0 for no limit
+	public static int cpuSlots = 0; // 0 for no limit
+	public ServiceSlots disk; // READ/WRITE
+	public ServiceSlots cpu; // authorization and integrity checks
+	public CommitBatcher batcher;
+	public PolicyFetcher fetcher; // Shared global version requests
+	public PolicyLease lease = null; // Leased global version in LEASE mode
+	public ProofRefresher refresher = null; // Background proofs in PREPROVE mode
+	public CloudServerStats stats; // Live metrics over JMX
+	public ResourceAccounting accounts = null; // Worker CPU and allocation in ACCOUNTING mode
+	// Workers holding the state of each transaction active on this server
+	private ConcurrentHashMap<Integer, WorkerThread> activeTransactions = new ConcurrentHashMap<Integer, WorkerThread>();
+	// Disk and CPU service spent on each transaction released by a worker, in us
+	private ConcurrentHashMap<Integer, AtomicLong> transactionService = new ConcurrentHashMap<Integer, AtomicLong>();
 	
 	public CloudServer(int _serverNumber) {
 		serverNumber = _serverNumber;
+		stats = new CloudServerStats(this);
+		batcher = new CommitBatcher(this);
+		fetcher = new PolicyFetcher(this, singleFlightWindow);
+		if (policyLease > 0) {
+			lease = new PolicyLease(this, policyLease);
+		}
+		// Proving ahead only pays off when the proofs take real time
+		if (preprove > 0 && threadSleep) {
+			refresher = new ProofRefresher(this, preprove);
+		}
+		if (accounting && ResourceAccounting.enable()) {
+			accounts = new ResourceAccounting();
+		}
+		disk = new ServiceSlots("DISK", diskSlots);
+		cpu = new ServiceSlots("CPU", cpuSlots);
 	}
 
     /**
@@ -81,14 +136,63 @@ public class CloudServer {
 			System.err.println("Error loading parameters file. Exiting.");
 			System.exit(-1);
 		}
+		
+		// Load the Policy Server read replicas, if any
+		if (replicaCount > 0) {
+			replicaList = loadConfig("replicaConfig.txt");
+			if (replicaList == null || replicaList.size() < replicaCount) {
+				System.err.println("Error loading replica configuration file. Exiting.");
+				System.exit(-1);
+			}
+		}
+		
+		// Load the network topology, if any
+		try {
+			topology = Topology.load(topologyFile, latencyMin, latencyMax);
+		}
+		catch (Exception e) {
+			System.err.println("Error loading topology file. Exiting.");
+			e.printStackTrace(System.err);
+			System.exit(-1);
+		}
 
 		CloudServer server = new CloudServer(serverNumber);
+		server.stats.register();
+		Tracer.setProcess(serverNumber, "CloudServer " + serverNumber);
+		if (sampleInterval > 0) {
+			new Sampler("Samples_CloudServer" + serverNumber + ".csv",
+						"active,committed,aborted,pass_queries,policy_version",
+						sampleInterval, new Sampler.Source() {
+				public String sample() {
+					return server.activeWorkers().size() + "," +
+						   server.stats.getCommits() + "," +
+						   server.stats.getAbortCount() + "," +
+						   server.stats.getPassQueriesInFlight() + "," +
+						   server.getPolicy();
+				}
+			}).start();
+		}
 		// Set the currect policy on this server from the Policy Server
 		server.setPolicy(server.callPolicyServer());
 		if (server.serverPolicyVersion == 0) {
 			System.out.println("Error retrieving Policy Version from Policy Server");
 			System.exit(-1);
 		}
+		// Open the channel the Policy Server pushes updates over
+		if (policySubscribe) {
+			PolicySubscriber subscriber = new PolicySubscriber(server);
+			if (subscriber.subscribe()) {
+				subscriber.start();
+			}
+			else {
+				System.out.println("Could not subscribe to policy updates, updates will be pushed per connection");
+			}
+		}
+
+		// Keep the lease on the global version renewed
+		if (server.lease != null) {
+			server.lease.start();
+		}
 
 		System.out.println("Server " + serverNumber + " is ready.");
 		// Start listening for client connections
@@ -150,13 +254,155 @@ public class CloudServer {
 		if (verbose) {
 			System.out.println("Server Policy Version updated to v. " + update);
 		}
+		if (refresher != null) {
+			refresher.policyAdvanced(update);
+		}
+	}
+	
+	/**
+	 * Moves to a newer policy version, an older update that arrives late is
+	 * ignored
+	 *
+	 * @param update - The policy version pushed by the Policy Server
+	 */
+	public synchronized void advancePolicy(int update) {
+		if (serverPolicyVersion < update) {
+			setPolicy(update);
+		}
+	}
+	
+	/**
+	 * Learns the policy version piggybacked on a message from another server
+	 * or the Policy Server, if gossip is on
+	 *
+	 * @param msg - A message just received
+	 */
+	public void hearPolicy(Message msg) {
+		if (gossip && msg.senderPolicy > serverPolicyVersion) {
+			advancePolicy(msg.senderPolicy);
+			gossipAdvances.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Records the worker holding a transaction's state on this server, so that
+	 * requests arriving outside of its socket (e.g. batched commit requests)
+	 * can be routed to it.
+	 *
+	 * @param txnNumber - the transaction number
+	 * @param worker - the worker handling the transaction on this server
+	 */
+	public void registerTransaction(int txnNumber, WorkerThread worker) {
+		activeTransactions.put(txnNumber, worker);
+	}
+	
+	public WorkerThread getTransaction(int txnNumber) {
+		return activeTransactions.get(txnNumber);
+	}
+	
+	public void releaseTransaction(int txnNumber, WorkerThread worker) {
+		activeTransactions.remove(txnNumber, worker);
+		AtomicLong service = transactionService.get(txnNumber);
+		if (service == null) {
+			AtomicLong created = new AtomicLong();
+			service = transactionService.putIfAbsent(txnNumber, created);
+			if (service == null) {
+				service = created;
+			}
+		}
+		service.addAndGet(worker.serviceTime);
+	}
+	
+	/**
+	 * @return String - the disk and CPU service this server spent on each
+	 * transaction, as <txn>:<us> pairs separated by spaces
+	 */
+	public String transactionServiceSummary() {
+		StringBuilder summary = new StringBuilder();
+		for (Integer txnNumber : transactionService.keySet()) {
+			if (summary.length() > 0) {
+				summary.append(" ");
+			}
+			summary.append(txnNumber + ":" + transactionService.get(txnNumber).get());
+		}
+		return summary.toString();
+	}
+	
+	public Collection<WorkerThread> activeWorkers() {
+		return activeTransactions.values();
+	}
+	
+	/**
+	 * @return String - the use of this server's disk and CPU slots since the
+	 * last PARAMETERS message
+	 */
+	public String serviceSummary() {
+		return "SERVER=" + serverNumber + " " + disk.summary() + " " + cpu.summary() +
+			   " " + fetcher.summary() +
+			   (lease != null ? " " + lease.summary() : "") +
+			   (gossip ? " GOSSIP_ADVANCES=" + gossipAdvances.get() : "") +
+			   (refresher != null ? " " + refresher.summary() : "") +
+			   (accounts != null ? " " + accounts.summary() : "");
+	}
+	
+	public void resetServiceStats() {
+		disk.reset();
+		cpu.reset();
+		fetcher.reset();
+		gossipAdvances.set(0);
+		if (lease != null) {
+			lease.reset();
+		}
+		if (refresher != null) {
+			refresher.reset();
+		}
+		if (accounts != null) {
+			accounts.reset();
+		}
+		stats.reset();
+		Tracer.reset();
+		transactionService.clear();
+	}
+	
+	/**
+	 * The Policy Server this server asks for the global version: the
+	 * primary, or with read replicas always the same replica, so that the
+	 * versions it receives never go backwards
+	 *
+	 * @return ServerID - the primary or replica
+	 */
+	public ServerID policySource() {
+		if (replicaCount > 0) {
+			return replicaList.get((serverNumber - 1) % replicaCount);
+		}
+		return serverList.get(0);
 	}
 	
+	/**
+	 * @return int - the global policy version, or 0 on failure
+	 */
 	public int callPolicyServer() {
+		if (singleFlight) {
+			// Share a request with the other workers asking at the same time
+			try {
+				return fetcher.fetch();
+			}
+			catch (InterruptedException ie) {
+				return 0;
+			}
+		}
+		return requestPolicyVersion();
+	}
+	
+	/**
+	 * Asks the Policy Server for the global policy version over a new
+	 * connection
+	 */
+	private int requestPolicyVersion() {
 		try {
 			// Connect to the Policy Server
-			final Socket policySocket = new Socket(serverList.get(0).getAddress(),
-												   serverList.get(0).getPort());
+			final Socket policySocket = new Socket(policySource().getAddress(),
+												   policySource().getPort());
 			if (verbose) {
 				System.out.println("CloudServer " + serverNumber + " calling Policy Server");
 			}
@@ -165,11 +411,14 @@ public class CloudServer {
 			final ObjectInputStream input = new ObjectInputStream(policySocket.getInputStream());
 			// Send message
 			Message msg = new Message("POLICYREQUEST");
+			msg.sender = serverNumber;
 			output.writeObject(msg);
 			// Receive response
 			msg = (Message)input.readObject();
+			hearPolicy(msg);
 			if (msg.theMessage.equals("FAIL")) {
 				System.out.println("*** CloudServer Policy Request FAIL ***");
+				policySocket.close();
 			}
 			else {
 				policySocket.close();
@@ -301,6 +550,45 @@ public class CloudServer {
 					else if (tuple[0].equals("SLEEP")) {
 						threadSleep = Boolean.parseBoolean(tuple[1]);
 					}
+					else if (tuple[0].equals("TW")) {
+						timerWheel = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SUB")) {
+						policySubscribe = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SF")) {
+						singleFlight = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SFW")) {
+						singleFlightWindow = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("GOSSIP")) {
+						gossip = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SAMPLE")) {
+						sampleInterval = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("ACCOUNTING")) {
+						accounting = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("TRACE")) {
+						Tracer.enabled = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("HINT")) {
+						convergeHint = tuple[1].toUpperCase();
+					}
+					else if (tuple[0].equals("PREPROVE")) {
+						preprove = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("REPLICA")) {
+						replicaCount = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("LEASE")) {
+						policyLease = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("TOPO")) {
+						topologyFile = tuple[1];
+					}
 					else if (tuple[0].equals("ICSR")) {
 						integrityCheckSuccessRate = Float.parseFloat(tuple[1]);
 					}
@@ -310,6 +598,33 @@ public class CloudServer {
 					else if (tuple[0].equals("RS3")) {
 						workerSeed = Long.parseLong(tuple[1]);
 					}
+					else if (tuple[0].equals("CB")) {
+						commitBatch = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("CBW")) {
+						commitBatchWindow = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("CBS")) {
+						commitBatchSize = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("SREAD")) {
+						readTime = ServiceTime.parse(tuple);
+					}
+					else if (tuple[0].equals("SWRITE")) {
+						writeTime = ServiceTime.parse(tuple);
+					}
+					else if (tuple[0].equals("SAUTH")) {
+						authTime = ServiceTime.parse(tuple);
+					}
+					else if (tuple[0].equals("SINTEG")) {
+						integrityTime = ServiceTime.parse(tuple);
+					}
+					else if (tuple[0].equals("DISK")) {
+						diskSlots = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("CPU")) {
+						cpuSlots = Integer.parseInt(tuple[1]);
+					}
 				}
 				catch (Exception e) {
 					System.out.println("Error while parsing \"" + filename +
@@ -0,0 +1,246 @@
+/**
+ * File: CloudServerStats.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Counts what a CloudServer's workers do while a run is in progress and
+ * exposes it over JMX. Workers on every hot path update these counters, so
+ * they are striped (LongAdder) and only summed when read.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Enumeration;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+public class CloudServerStats implements CloudServerStatsMBean {
+	private final CloudServer my_tm;
+	private volatile long started = SimClock.micros();
+	private AtomicInteger activeWorkers = new AtomicInteger();
+	// Messages received by workers, by the first word of the message
+	private ConcurrentHashMap<String, LongAdder> messages = new ConcurrentHashMap<String, LongAdder>();
+	private LongAdder passQueries = new LongAdder();
+	private AtomicInteger passQueriesInFlight = new AtomicInteger();
+	private LongAdder passQueryTime = new LongAdder();
+	private LongAdder commitResponses = new LongAdder();
+	private LongAdder commitResponseTime = new LongAdder();
+	private LongAdder proofs = new LongAdder();
+	private LongAdder proofsSkipped = new LongAdder();
+	private LongAdder commits = new LongAdder();
+	private LongAdder abortCount = new LongAdder();
+	private ConcurrentHashMap<String, LongAdder> aborts = new ConcurrentHashMap<String, LongAdder>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_tm - The CloudServer
+	 */
+	public CloudServerStats(CloudServer _my_tm) {
+		my_tm = _my_tm;
+	}
+
+	/**
+	 * Makes the metrics visible to JMX clients of this JVM
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("CloudDataSim:type=CloudServer,server=" + my_tm.serverNumber));
+		}
+		catch (Exception e) {
+			System.err.println("Error registering JMX metrics: " + e.getMessage());
+		}
+	}
+
+	public void workerStarted() {
+		activeWorkers.incrementAndGet();
+	}
+
+	public void workerFinished() {
+		activeWorkers.decrementAndGet();
+	}
+
+	/**
+	 * @param text - A message a worker received
+	 */
+	public void message(String text) {
+		int end = text.length();
+		int space = text.indexOf(' ');
+		int comma = text.indexOf(',');
+		if (space != -1) {
+			end = space;
+		}
+		if (comma != -1 && comma < end) {
+			end = comma;
+		}
+		count(messages, text.substring(0, end));
+	}
+
+	public void passQueryStarted() {
+		passQueriesInFlight.incrementAndGet();
+	}
+	
+	/**
+	 * @param latency - Time in us a passed query took to be answered
+	 */
+	public void passQuery(long latency) {
+		passQueriesInFlight.decrementAndGet();
+		passQueries.increment();
+		passQueryTime.add(latency);
+	}
+
+	/**
+	 * @param latency - Time in us from the start of a commit-phase round
+	 * (PTC, 2PV, 2PVC, RUNAUTHS) to one participant's response
+	 */
+	public void commitResponse(long latency) {
+		commitResponses.increment();
+		commitResponseTime.add(latency);
+	}
+
+	public void proof() {
+		proofs.increment();
+	}
+
+	public void proofSkipped() {
+		proofsSkipped.increment();
+	}
+
+	/**
+	 * @param status - The status a transaction finished with, e.g.
+	 * ABORT LOCAL_POLICY_FALSE; anything but a commit or abort is ignored
+	 */
+	public void finished(String status) {
+		if (status.startsWith("COMMIT")) {
+			commits.increment();
+		}
+		else if (status.startsWith("ABORT")) {
+			abortCount.increment();
+			String statusSplit[] = status.split(" ");
+			count(aborts, AbortReason.parse(statusSplit.length > 1 ? statusSplit[1] : null).name());
+		}
+	}
+
+	private void count(ConcurrentHashMap<String, LongAdder> counters, String key) {
+		LongAdder counter = counters.get(key);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.increment();
+	}
+
+	public int getActiveWorkers() {
+		return activeWorkers.get();
+	}
+
+	public int getPolicyVersion() {
+		return my_tm.getPolicy();
+	}
+
+	public long getMessages() {
+		long total = 0;
+		for (Enumeration<LongAdder> counters = messages.elements(); counters.hasMoreElements();) {
+			total += counters.nextElement().sum();
+		}
+		return total;
+	}
+
+	/**
+	 * @return String - e.g. R=12.5 W=3.1 2PV=0.4, per second
+	 */
+	public String getMessageRates() {
+		double seconds = Math.max(SimClock.micros() - started, 1) / 1000000.0;
+		StringBuilder rates = new StringBuilder();
+		TreeMap<String, LongAdder> sorted = new TreeMap<String, LongAdder>(messages);
+		for (String opcode : sorted.keySet()) {
+			if (rates.length() > 0) {
+				rates.append(" ");
+			}
+			rates.append(opcode + "=" + String.format("%.1f", sorted.get(opcode).sum() / seconds));
+		}
+		return rates.toString();
+	}
+
+	public long getPassQueries() {
+		return passQueries.sum();
+	}
+	
+	public int getPassQueriesInFlight() {
+		return passQueriesInFlight.get();
+	}
+
+	/**
+	 * @return long - the average passed query latency in us
+	 */
+	public long getPassQueryLatency() {
+		long count = passQueries.sum();
+		return (count > 0) ? passQueryTime.sum() / count : 0;
+	}
+
+	public long getCommitResponses() {
+		return commitResponses.sum();
+	}
+
+	/**
+	 * @return long - the average time in us from the start of a commit-phase
+	 * round to a participant's response
+	 */
+	public long getCommitRoundLatency() {
+		long count = commitResponses.sum();
+		return (count > 0) ? commitResponseTime.sum() / count : 0;
+	}
+
+	public long getProofsExecuted() {
+		return proofs.sum();
+	}
+
+	public long getProofsSkipped() {
+		return proofsSkipped.sum();
+	}
+
+	public long getCommits() {
+		return commits.sum();
+	}
+	
+	public long getAbortCount() {
+		return abortCount.sum();
+	}
+	
+	/**
+	 * @return String - e.g. LOCAL_POLICY_FALSE=2 PTC_RESPONSE_NO=1
+	 */
+	public String getAborts() {
+		StringBuilder counts = new StringBuilder();
+		TreeMap<String, LongAdder> sorted = new TreeMap<String, LongAdder>(aborts);
+		for (String reason : sorted.keySet()) {
+			if (counts.length() > 0) {
+				counts.append(" ");
+			}
+			counts.append(reason + "=" + sorted.get(reason).sum());
+		}
+		return counts.toString();
+	}
+
+	/**
+	 * Starts counting afresh; workers still running stay counted as active
+	 */
+	public void reset() {
+		started = SimClock.micros();
+		messages.clear();
+		passQueries.reset();
+		passQueryTime.reset();
+		commitResponses.reset();
+		commitResponseTime.reset();
+		proofs.reset();
+		proofsSkipped.reset();
+		commits.reset();
+		abortCount.reset();
+		aborts.clear();
+	}
+}
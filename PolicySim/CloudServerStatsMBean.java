@@ -0,0 +1,26 @@
+/**
+ * File: CloudServerStatsMBean.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * The live metrics of a CloudServer, as seen over JMX (e.g. in jconsole)
+ * under CloudDataSim:type=CloudServer,server=<n>. Times are in us, rates are
+ * per second since the server started or was last reset.
+ */
+
+public interface CloudServerStatsMBean {
+	public int getActiveWorkers();
+	public int getPolicyVersion();
+	public long getMessages();
+	public String getMessageRates();
+	public long getPassQueries();
+	public int getPassQueriesInFlight();
+	public long getPassQueryLatency();
+	public long getCommitResponses();
+	public long getCommitRoundLatency();
+	public long getProofsExecuted();
+	public long getProofsSkipped();
+	public long getCommits();
+	public long getAbortCount();
+	public String getAborts();
+	public void reset();
+}
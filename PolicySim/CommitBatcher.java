@@ -0,0 +1,286 @@
+/**
+ * File: CommitBatcher.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Group commit for the 2PC/2PV rounds of a CloudServer. Coordinators hand
+ * their commit-phase requests (PTC, RUNAUTHS, 2PVC, 2PV) to the batcher, which
+ * gathers the requests of concurrent transactions bound for the same
+ * participant and sends them as one BATCH message once the batch is full or
+ * its window has passed. The participant answers each request with the
+ * worker holding that transaction and returns all votes in a single reply.
+ */
+
+import java.lang.Thread;
+import java.net.Socket;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CommitBatcher {
+	private CloudServer my_tm; // The Transaction Manager that owns the batcher
+	private Hashtable<Integer, BatchSender> senders = new Hashtable<Integer, BatchSender>();
+	private final ExecutorService answerPool = Executors.newCachedThreadPool();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_tm - The Transaction Manager that owns the batcher
+	 */
+	public CommitBatcher(CloudServer _my_tm) {
+		my_tm = _my_tm;
+	}
+
+	/**
+	 * Batching only makes sense when latency is actually slept, since in the
+	 * summed-latency mode no transaction waits on another.
+	 *
+	 * @return boolean - true if coordinators should submit to the batcher
+	 */
+	public boolean isEnabled() {
+		return my_tm.commitBatch && my_tm.threadSleep;
+	}
+
+	/**
+	 * Queues a commit-phase request for a participant.
+	 *
+	 * @param otherServer - The number of the participating server
+	 * @param txnNumber - The transaction the request belongs to
+	 * @param request - The request, e.g. PTC <version>
+	 *
+	 * @return Vote - holds the participant's response once it arrives
+	 */
+	public Vote submit(int otherServer, int txnNumber, String request) {
+		BatchSender sender = null;
+		synchronized (senders) {
+			sender = senders.get(otherServer);
+			if (sender == null) {
+				sender = new BatchSender(otherServer);
+				senders.put(otherServer, sender);
+				sender.start();
+			}
+		}
+		Vote vote = new Vote(txnNumber, request);
+		sender.add(vote);
+		return vote;
+	}
+
+	/**
+	 * Participant side: answers every request of a batch in parallel, each
+	 * with the worker that holds the request's transaction on this server.
+	 *
+	 * @param batch - BATCH <txn> <request>;<txn> <request>;...
+	 *
+	 * @return String - BATCH <txn> <response>;... in the order received
+	 */
+	public String answerBatch(String batch) {
+		String requests[] = batch.substring("BATCH ".length()).split(";");
+		ArrayList<Future<String>> answers = new ArrayList<Future<String>>();
+		for (int i = 0; i < requests.length; i++) {
+			final String query[] = requests[i].split(" ");
+			answers.add(answerPool.submit(new Callable<String>() {
+				public String call() {
+					WorkerThread worker = my_tm.getTransaction(Integer.parseInt(query[0]));
+					if (worker == null) { // Transaction is not active here
+						return refusal(Arrays.copyOfRange(query, 1, query.length));
+					}
+					return worker.answerCommitRequest(Arrays.copyOfRange(query, 1, query.length));
+				}
+			}));
+		}
+
+		String reply = "BATCH ";
+		for (int i = 0; i < requests.length; i++) {
+			String query[] = requests[i].split(" ");
+			String response = refusal(Arrays.copyOfRange(query, 1, query.length));
+			try {
+				response = answers.get(i).get();
+			}
+			catch (Exception e) {
+				System.err.println("answerBatch() Error: " + e.getMessage());
+				e.printStackTrace(System.err);
+			}
+			if (i > 0) {
+				reply += ";";
+			}
+			reply += query[0] + " " + response;
+		}
+		return reply;
+	}
+
+	/**
+	 * A negative vote in the protocol of the request it answers. The 2PV
+	 * coordinator expects TRUE/FALSE <version> and aborts on a FALSE at the
+	 * version it sent, RUNAUTHS aborts on FALSE, and PTC and 2PVC treat NO
+	 * as a refusal.
+	 *
+	 * @param query - The request split on spaces, e.g. 2PV <version>
+	 *
+	 * @return String - the response that makes the coordinator abort
+	 */
+	private static String refusal(String query[]) {
+		if (query[0].equals("2PV") && query.length > 1) {
+			return "FALSE " + query[1];
+		}
+		else if (query[0].equals("RUNAUTHS")) {
+			return "FALSE";
+		}
+		return "NO";
+	}
+
+	/**
+	 * A commit-phase request waiting for its participant's response
+	 */
+	public class Vote {
+		private final int txnNumber;
+		private final String request;
+		private final String query[]; // The request split on spaces
+		private final long submitTime;
+		private String response = null;
+
+		public Vote(int _txnNumber, String _request) {
+			txnNumber = _txnNumber;
+			request = _request;
+			query = _request.split(" ");
+			submitTime = System.currentTimeMillis();
+		}
+
+		public synchronized void complete(String _response) {
+			response = _response;
+			notifyAll();
+		}
+
+		/**
+		 * Blocks until the participant's response has arrived
+		 *
+		 * @return String - the response to the request
+		 */
+		public synchronized String await() throws InterruptedException {
+			while (response == null) {
+				wait();
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * One thread per participant server. Collects queued requests into
+	 * batches and sends them over a connection that stays open for the life
+	 * of the server.
+	 */
+	class BatchSender extends Thread {
+		private final int otherServer;
+		private ArrayList<Vote> pending = new ArrayList<Vote>();
+		private Random generator;
+		private Socket socket = null;
+		private DelayedOutput output;
+		private ObjectInputStream input;
+
+		public BatchSender(int _otherServer) {
+			otherServer = _otherServer;
+			generator = new Random(my_tm.workerSeed + otherServer);
+			setDaemon(true);
+		}
+
+		public synchronized void add(Vote vote) {
+			pending.add(vote);
+			notifyAll();
+		}
+
+		/**
+		 * Waits until the oldest pending request has waited out the batch
+		 * window or the batch is full, then takes up to a batch of requests.
+		 *
+		 * @return ArrayList<Vote> - the requests to send together
+		 */
+		private synchronized ArrayList<Vote> nextBatch() throws InterruptedException {
+			while (pending.isEmpty()) {
+				wait();
+			}
+			long remaining = pending.get(0).submitTime + my_tm.commitBatchWindow - System.currentTimeMillis();
+			while (pending.size() < my_tm.commitBatchSize && remaining > 0) {
+				wait(remaining);
+				remaining = pending.get(0).submitTime + my_tm.commitBatchWindow - System.currentTimeMillis();
+			}
+			ArrayList<Vote> batch = new ArrayList<Vote>();
+			while (!pending.isEmpty() && batch.size() < my_tm.commitBatchSize) {
+				batch.add(pending.remove(0));
+			}
+			return batch;
+		}
+
+		public void run() {
+			while (true) {
+				ArrayList<Vote> batch = null;
+				try {
+					batch = nextBatch();
+				}
+				catch (InterruptedException ie) {
+					return;
+				}
+				try {
+					if (socket == null) {
+						socket = new Socket(my_tm.serverList.get(otherServer).getAddress(),
+											my_tm.serverList.get(otherServer).getPort());
+						output = new DelayedOutput(new ObjectOutputStream(socket.getOutputStream()));
+						output.setPersistent(); // Open for the life of the server
+						input = new ObjectInputStream(socket.getInputStream());
+					}
+					String batchText = "BATCH ";
+					for (int i = 0; i < batch.size(); i++) {
+						if (i > 0) {
+							batchText += ";";
+						}
+						batchText += batch.get(i).txnNumber + " " + batch.get(i).request;
+					}
+					// Simulate latency, once for the whole batch
+					Message batchMsg = new Message(batchText);
+					batchMsg.sender = my_tm.serverNumber;
+					batchMsg.senderPolicy = my_tm.getPolicy();
+					if (my_tm.timerWheel) {
+						output.send(batchMsg, nextLatency(batchText.length()));
+					}
+					else {
+						latencySleep(batchText.length());
+						output.sendNow(batchMsg);
+					}
+					Message msg = (Message)input.readObject();
+					my_tm.hearPolicy(msg);
+					// Responses come back in the order the requests were sent
+					String responses[] = msg.theMessage.substring("BATCH ".length()).split(";");
+					for (int i = 0; i < batch.size(); i++) {
+						batch.get(i).complete(responses[i].substring(responses[i].indexOf(' ') + 1));
+					}
+				}
+				catch (Exception e) {
+					System.err.println("Batch to server " + otherServer + " Error: " + e.getMessage());
+					e.printStackTrace(System.err);
+					// Don't leave coordinators waiting on a broken connection
+					for (int i = 0; i < batch.size(); i++) {
+						batch.get(i).complete(refusal(batch.get(i).query));
+					}
+					try {
+						socket.close();
+					}
+					catch (Exception ce) {
+					}
+					socket = null;
+				}
+			}
+		}
+
+		public int nextLatency(int bytes) {
+			return my_tm.topology.latency(my_tm.serverNumber, otherServer, bytes, generator);
+		}
+
+		public void latencySleep(int bytes) {
+			int latency = nextLatency(bytes);
+			if (latency > 0) { // There is artificial latency
+				// Wait for <latency> us
+				SimClock.sleepMicros(latency);
+			}
+		}
+	}
+}
@@ -13,6 +13,8 @@ import java.io.*;
 import java.util.*;
 
 public class ContinuousThread extends IncrementalThread {
+	private int seenPolicy = 0; // Freshest version shown by a participant
+	private int validationRounds = 0; // 2PVC and 2PV rounds of this transaction
 	
 	/**
 	 * Constructor that sets up the socket we'll chat over
@@ -30,6 +32,9 @@ public class ContinuousThread extends IncrementalThread {
 	 */
 	public void run() {
 		generator = new Random(my_tm.workerSeed);
+		my_tm.stats.workerStarted();
+		txnEvent.begin();
+		startAccounting();
 		
 		PrintStream printStreamOriginal = System.out;
 		if (!my_tm.verbose) {
@@ -50,6 +55,7 @@ public class ContinuousThread extends IncrementalThread {
 			// Set up I/O streams with the calling thread
 			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
 			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final DelayedOutput reply = new DelayedOutput(output);
 			
 			Message msg = null;
 			Message resp = null;
@@ -59,6 +65,9 @@ public class ContinuousThread extends IncrementalThread {
 				String msgText = "ACK";
 				// Read and print message
 				msg = (Message)input.readObject();
+				peer = msg.sender; // Reply over the link we were called on
+				my_tm.stats.message(msg.theMessage);
+				my_tm.hearPolicy(msg);
 				System.out.println("[" + socket.getInetAddress() +
 								   ":" + socket.getPort() + "] " + msg.theMessage);
 				
@@ -76,8 +85,7 @@ public class ContinuousThread extends IncrementalThread {
 					if (my_tm.getPolicy() < update) {
 						my_tm.setPolicy(update);
 					}
-					latencySleep(); // Simulate latency
-					output.writeObject(new Message(msgText)); // send ACK
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency, send ACK
 					break;
 				}
 				else if (msg.theMessage.indexOf("PARAMETERS") != -1) { // Configuration change
@@ -90,10 +98,30 @@ public class ContinuousThread extends IncrementalThread {
 					System.out.println("Proof: " + my_tm.proof);
 					System.out.println("Validation mode: " + my_tm.validationMode);
 					System.out.println("Policy push mode: " + my_tm.policyPush);
+					my_tm.resetServiceStats(); // A new run starts
 					// No artificial latency needed, send ACK
-					output.writeObject(new Message(msgText));
+					reply.sendNow(new Message(msgText));
 					break;
 				}
+				else if (msg.theMessage.equals("SERVICESTATS")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.serviceSummary()));
+					break;
+				}
+				else if (msg.theMessage.equals("TRACEDUMP")) { // Robot collecting spans
+					reply.sendNow(new Message(Tracer.dump()));
+					break;
+				}
+				else if (msg.theMessage.equals("TXNSERVICE")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.transactionServiceSummary()));
+					break;
+				}
+				else if (msg.theMessage.startsWith("BATCH ")) { // Batched commit requests
+					// Answer each request with the worker holding its transaction
+					msgText = my_tm.batcher.answerBatch(msg.theMessage);
+					reply.setPersistent(); // Don't keep every batch answered
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency
+					continue; // Connection stays open for the next batch
+				}
 				
 				// Separate queries
 				String queryGroup[] = msg.theMessage.split(",");
@@ -111,7 +139,7 @@ public class ContinuousThread extends IncrementalThread {
 									// Only the coordinator should call the
 									// policy server, and only the coordinator
 									// receives query.length == 4
-									my_tm.setPolicy(my_tm.callPolicyServer());
+									my_tm.advancePolicy(globalPolicy());
 									transactionPolicyVersion = my_tm.getPolicy();
 								}
 								else {
@@ -192,7 +220,7 @@ public class ContinuousThread extends IncrementalThread {
 							System.out.println("Pass READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
@@ -210,7 +238,7 @@ public class ContinuousThread extends IncrementalThread {
 									// Only the coordinator should call the
 									// policy server, and only the coordinator
 									// receives query.length == 4
-									my_tm.setPolicy(my_tm.callPolicyServer());
+									my_tm.advancePolicy(globalPolicy());
 									transactionPolicyVersion = my_tm.getPolicy();
 								}
 								else {
@@ -291,7 +319,7 @@ public class ContinuousThread extends IncrementalThread {
 							System.out.println("Pass WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
@@ -302,38 +330,15 @@ public class ContinuousThread extends IncrementalThread {
 						System.out.println("COMMIT phase - transaction " + query[1]);
 						// Begin 2PC/2PV methods
 						msgText = commitPhase();
+						txnEvent.status = msgText;
 						System.out.println("Status of 2PC/2PV of transaction " + query[1] +
 										   ": " + msgText);
 					}
-					else if (query[0].equals("PTC")) { // Prepare-to-Commit
-						if (integrityCheck()) {
-							msgText = "YES";
-						}
-						else {
-							msgText = "NO";
-						}
-					}
-					else if (query[0].equals("2PVC")) {
-						if (integrityCheck()) { // If integrity check passes
-							String result2PV = answer2PV(Integer.parseInt(query[1]));
-							if (result2PV.indexOf("TRUE") != -1) { // 2PV successful
-								msgText = "YES TRUE " + Integer.parseInt(query[1]);
-							}
-							else {
-								msgText = "YES FALSE " + Integer.parseInt(query[1]);
-							}
-						}
-						else {
-							msgText = "NO";
-						}
-					}
-					else if (query[0].equals("2PV")) {
-						// receives: 2PV [policy from coord]
-						// Reruns auths (if necessary) with greater of local/coord policy
-						// returns:
-						// TRUE [policy]
-						// FALSE [policy]
-						msgText = answer2PV(Integer.parseInt(query[1]));
+					else if (query[0].equals("PTC") ||
+							 query[0].equals("2PVC") ||
+							 query[0].equals("2PV")) {
+						// Commit-phase request from the coordinator
+						msgText = answerCommitRequest(query);
 					}
 					else if (query[0].equals("RSERV")) { // Random server for policy pushing
 						randomServer = Integer.parseInt(query[1]);
@@ -342,16 +347,24 @@ public class ContinuousThread extends IncrementalThread {
 						Thread.sleep(Integer.parseInt(query[1]));
 					}
 					else if (query[0].toUpperCase().equals("EXIT")) { // end of transaction
-						// send exit flag to RobotThread
+						// send exit flag to RobotThread, with KEY=value measurements
 						msgText = "FIN";
 						if (!my_tm.threadSleep) { // append total sleep time to message
-							msgText += " " + totalSleepTime;
+							msgText += " SLEEP=" + totalSleepTime;
 						}
+						msgText += " QWAIT=" + queueWait;
+						msgText += " PH=" + phaseSummary();
+						if (my_tm.lease != null) {
+							msgText += " STALE=" + policyStaleness;
+						}
+						msgText += " ROUNDS=" + validationRounds;
 					}
 				}
-				latencySleep(); // Simulate latency to RobotThread
+				if (peer == Topology.ROBOT) {
+					my_tm.stats.finished(msgText);
+				}
 				// ACK completion of this query group to RobotThread
-				output.writeObject(new Message(msgText));
+				sendWithLatency(reply, new Message(msgText), peer); // Simulate latency to RobotThread
 			}
 			// Close any SocketGroup connection
 			if (sockList.size() > 0) {
@@ -359,21 +372,23 @@ public class ContinuousThread extends IncrementalThread {
 				for (Enumeration<Integer> socketList = sockList.keys(); socketList.hasMoreElements();) {
 					msg = new Message("DONE");
 					serverNum = socketList.nextElement();
-					latencySleep(); // Simulate latency
-					sockList.get(serverNum).output.writeObject(msg);
-					sockList.get(serverNum).socket.close();
+					sendWithLatency(sockList.get(serverNum).delayed, msg, serverNum); // Simulate latency
+					sockList.get(serverNum).delayed.close(sockList.get(serverNum).socket);
 				}
 			}
 			
 			// Close and cleanup
 			System.out.println("** Closing connection with " + socket.getInetAddress() +
 							   ":" + socket.getPort() + " **");
-			socket.close();
+			reply.close(socket); // Once any reply in flight has been delivered
 		}
 		catch(Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace(System.err);
 		}
+		endRound();
+		releaseTransaction();
+		my_tm.stats.workerFinished();
 		System.out.flush();
 		System.setOut(printStreamOriginal);
 	}
@@ -418,9 +433,10 @@ public class ContinuousThread extends IncrementalThread {
 				
 				// Send message
 				msg = new Message(query);
-				latencySleep(); // Simulate latency to other server
-				sockList.get(otherServer).output.writeObject(msg);
+				sendWithLatency(sockList.get(otherServer).delayed, msg, otherServer); // Simulate latency to other server
 				msg = (Message)sockList.get(otherServer).input.readObject();
+				my_tm.hearPolicy(msg);
+				notePolicy(msg);
 				System.out.println("Server " + otherServer +
 								   " says: " + msg.theMessage +
 								   " for passed query " + query);
@@ -442,9 +458,10 @@ public class ContinuousThread extends IncrementalThread {
 			
 			// Send the normal query
 			msg = new Message(query);
-			latencySleep(); // Simulate latency to other server
-			sockList.get(otherServer).output.writeObject(msg);
+			sendWithLatency(sockList.get(otherServer).delayed, msg, otherServer); // Simulate latency to other server
 			msg = (Message)sockList.get(otherServer).input.readObject();
+			my_tm.hearPolicy(msg);
+			notePolicy(msg);
 			System.out.println("Server " + otherServer +
 							   " says: " + msg.theMessage +
 							   " for passed query " + query);
@@ -462,6 +479,73 @@ public class ContinuousThread extends IncrementalThread {
 		return "FAIL";
 	}
 	
+	/**
+	 * Remembers the freshest policy version a participant has shown, from its
+	 * ACK <version> reply or the version piggybacked on the message, so that
+	 * the first validation round can go out with it (HINT SEEN or GLOBAL)
+	 *
+	 * @param msg - A participant's reply to a passed query
+	 */
+	private void notePolicy(Message msg) {
+		if (my_tm.convergeHint.equals("NONE")) {
+			return;
+		}
+		if (msg.senderPolicy > seenPolicy) {
+			seenPolicy = msg.senderPolicy;
+		}
+		String msgSplit[] = msg.theMessage.split(" ");
+		if (msgSplit[0].equals("ACK") && msgSplit.length > 1) {
+			try {
+				seenPolicy = Math.max(seenPolicy, Integer.parseInt(msgSplit[1]));
+			}
+			catch (NumberFormatException nfe) {
+				// No version in this reply
+			}
+		}
+	}
+	
+	/**
+	 * Answers a commit-phase request from the coordinator, whether it arrived
+	 * on this worker's socket or in a batch from the coordinator's server.
+	 *
+	 * @param query - the request split on spaces, e.g. 2PV <version>
+	 * @return String - the response to the coordinator
+	 */
+	public String answerCommitRequest(String query[]) {
+		String msgText = "ACK";
+		if (query[0].equals("PTC")) { // Prepare-to-Commit
+			if (integrityCheck()) {
+				msgText = "YES";
+			}
+			else {
+				msgText = "NO";
+			}
+		}
+		else if (query[0].equals("2PVC")) {
+			if (integrityCheck()) { // If integrity check passes
+				String result2PV = answer2PV(Integer.parseInt(query[1]));
+				if (result2PV.indexOf("TRUE") != -1) { // 2PV successful
+					msgText = "YES TRUE " + Integer.parseInt(query[1]);
+				}
+				else {
+					msgText = "YES FALSE " + Integer.parseInt(query[1]);
+				}
+			}
+			else {
+				msgText = "NO";
+			}
+		}
+		else if (query[0].equals("2PV")) {
+			// receives: 2PV [policy from coord]
+			// Reruns auths (if necessary) with greater of local/coord policy
+			// returns:
+			// TRUE [policy]
+			// FALSE [policy]
+			msgText = answer2PV(Integer.parseInt(query[1]));
+		}
+		return msgText;
+	}
+	
 	/**
 	 * Performs the actions necessary by the coordinator for committing
 	 *
@@ -492,7 +576,7 @@ public class ContinuousThread extends IncrementalThread {
 	public boolean rerunAuths(int currentPolicyVersion) {
 		for (int j = 0; j < queryLog.size(); j++) {
 			if (queryLog.get(j).getPolicy() < currentPolicyVersion) {
-				if (!checkLocalAuth()) {
+				if (!checkLocalAuth(queryLog.get(j), currentPolicyVersion)) {
 					System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 									   " for txn " + queryLog.get(j).getTransaction() +
 									   ", seq " + queryLog.get(j).getSequence() +
@@ -518,6 +602,7 @@ public class ContinuousThread extends IncrementalThread {
 								   ", seq " + queryLog.get(j).getSequence() +
 								   " with policy v. " + currentPolicyVersion +
 								   ": ALREADY DONE");
+				my_tm.stats.proofSkipped();
 			}
 		}
 		return true;
@@ -540,13 +625,12 @@ public class ContinuousThread extends IncrementalThread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("PTC");
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "PTC");
 					}
 					catch (Exception e) {
 						System.err.println("PTC Send Error: " + e.getMessage());
@@ -564,7 +648,7 @@ public class ContinuousThread extends IncrementalThread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response, add policy version to ArrayList
 						System.out.println("Response of server " + serverNum[i] +
 										   " for message PTC: " + msg.theMessage);
@@ -602,6 +686,8 @@ public class ContinuousThread extends IncrementalThread {
 	 */
 	public boolean run2PV(int freshestPolicy) {
 		boolean authorizationsOkay = true;
+		// Go out with the freshest version known, so one round usually does
+		freshestPolicy = Math.max(freshestPolicy, seenPolicy);
 		// Contact all servers, send 2PV [policy] and gather responses
 		if (sockList.size() > 0) {
 			Message msg = null;
@@ -619,13 +705,13 @@ public class ContinuousThread extends IncrementalThread {
 			// Run 2PV as long as necessary
 			while (needToRun && authorizationsOkay) {
 				needToRun = false;
-				latencySleep(); // Simulate latency (before looping)
+				validationRounds++;
+				commitRoundLatency(); // Simulate latency (before looping)
 				// Send messages to all participants
 				for (int i = 0; i < sockList.size(); i++) {
 					if (serverNum[i] != 0) { // Don't call the Policy server
 						try {
-							msg = new Message("2PV " + freshestPolicy);
-							sockList.get(serverNum[i]).output.writeObject(msg);
+							sendCommitRequest(serverNum[i], "2PV " + freshestPolicy);
 						}
 						catch (Exception e) {
 							System.err.println("run2PV() Send Error: " + e.getMessage());
@@ -651,7 +737,7 @@ public class ContinuousThread extends IncrementalThread {
 				for (int i = 0; i < sockList.size(); i++) {
 					if (serverNum[i] != 0) { // Don't listen for the Policy server
 						try {
-							msg = (Message)sockList.get(serverNum[i]).input.readObject();
+							msg = receiveCommitResponse(serverNum[i]);
 							System.out.println("Response of server " + serverNum[i] +
 											   " for message 2PV " + freshestPolicy +
 											   ": " + msg.theMessage);
@@ -728,7 +814,8 @@ public class ContinuousThread extends IncrementalThread {
 	public String run2PVC() {
 		// Get and set freshest global policy - make call even though we are
 		// discarding response
-		int freshestPolicy = my_tm.callPolicyServer();
+		int freshestPolicy = globalPolicy();
+		int globalHint = freshestPolicy;
 		if (my_tm.policyPush == 3) {
 			// Push update to policy version
 			freshestPolicy = transactionPolicyVersion + 1;
@@ -736,6 +823,12 @@ public class ContinuousThread extends IncrementalThread {
 		else {
 			freshestPolicy = transactionPolicyVersion;
 		}
+		// Start from the freshest version known, so participants need not
+		// report a fresher one and send us round a second time
+		freshestPolicy = Math.max(freshestPolicy, seenPolicy);
+		if (my_tm.convergeHint.equals("GLOBAL")) {
+			freshestPolicy = Math.max(freshestPolicy, globalHint);
+		}
 		
 		boolean start2PV = false;
 		
@@ -753,13 +846,13 @@ public class ContinuousThread extends IncrementalThread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			validationRounds++;
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("2PVC " + freshestPolicy);
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "2PVC " + freshestPolicy);
 					}
 					catch (Exception e) {
 						System.err.println("run2PVC() Send Error: " + e.getMessage());
@@ -785,7 +878,7 @@ public class ContinuousThread extends IncrementalThread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						System.out.println("Response of server " + serverNum[i] +
 										   " for message 2PVC " + transactionPolicyVersion +
 										   ": " + msg.theMessage);
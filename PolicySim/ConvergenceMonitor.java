@@ -0,0 +1,176 @@
+/**
+ * File: ConvergenceMonitor.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Decides when the Robot has run enough transactions (CIT): it keeps the
+ * running mean and variance of the full and commit times and of the commit
+ * ratio, and declares the run done once the confidence interval of each is
+ * narrow enough. The times must reach a half-width of CIT times their mean,
+ * the commit ratio a half-width of CIT. The commit ratio uses the Wilson
+ * interval, which unlike the normal one does not shrink to nothing when
+ * every transaction so far committed, or none did. At most maxDegree transactions run
+ * at once, so none is started past the point where the target was met.
+ * Like the log's averages it leaves out the warm-up (WUT and WUD); the end of
+ * the measurement window (MWD, CDD) is only known once the run is over, so
+ * it measures every transaction after the warm-up.
+ */
+
+import java.util.concurrent.Semaphore;
+
+public class ConvergenceMonitor {
+	public static final int MIN_SAMPLES = 30; // Before the normal approximation holds
+	private final double target;
+	private final double level;
+	private final double z;
+	private final int warmup; // Transactions not measured
+	private final long warmupDuration; // us from the first start not measured
+	private final Semaphore running;
+	private RunningStats fullTime = new RunningStats();
+	private RunningStats commitTime = new RunningStats(); // Committed transactions only
+	private RunningStats commitRatio = new RunningStats();
+	private volatile boolean done = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _target - The relative half-width of the times, and the absolute
+	 * half-width of the commit ratio, to reach
+	 * @param _level - The confidence level, 0.90, 0.95 or 0.99
+	 * @param _warmup - The first transactions, not measured (WUT)
+	 * @param _warmupDuration - Time in ms from the first start, not measured
+	 * (WUD)
+	 * @param _maxDegree - The transactions run at once
+	 */
+	public ConvergenceMonitor(double _target, double _level, int _warmup, int _warmupDuration,
+							  int _maxDegree) {
+		target = _target;
+		level = _level;
+		warmup = _warmup;
+		warmupDuration = _warmupDuration * 1000l;
+		if (level == 0.90) {
+			z = 1.645;
+		}
+		else if (level == 0.95) {
+			z = 1.960;
+		}
+		else if (level == 0.99) {
+			z = 2.576;
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported confidence level " + level);
+		}
+		running = new Semaphore(_maxDegree);
+	}
+
+	/**
+	 * Waits until another transaction may start
+	 *
+	 * @return boolean - false once the target is met, and no more should start
+	 */
+	public boolean admit() throws InterruptedException {
+		running.acquire();
+		if (done) {
+			running.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Measures a finished transaction, after its last attempt
+	 */
+	public void finished(TransactionData txn) {
+		synchronized (this) {
+			if (txn.getTxnNumber() > warmup && pastWarmup(txn)) {
+				boolean committed = txn.isCommitted();
+				fullTime.add(txn.getDuration());
+				if (committed) {
+					commitTime.add(txn.getCommitTime());
+				}
+				commitRatio.add(committed ? 1.0 : 0.0);
+				if (converged()) {
+					done = true;
+				}
+			}
+		}
+		running.release();
+	}
+
+	/**
+	 * @return boolean - true if the transaction started after the first WUD
+	 * ms of the run, which starts with the first transaction's first attempt
+	 */
+	private boolean pastWarmup(TransactionData txn) {
+		if (warmupDuration == 0) {
+			return true;
+		}
+		long runStart = TransactionLog.entry.get(1).getFirstStartTime();
+		return runStart != 0 && txn.getFirstStartTime() >= runStart + warmupDuration;
+	}
+
+	private boolean converged() {
+		return commitRatio.getCount() >= MIN_SAMPLES &&
+			   commitTime.getCount() >= MIN_SAMPLES &&
+			   fullTime.halfWidth(z) <= target * fullTime.getMean() &&
+			   commitTime.halfWidth(z) <= target * commitTime.getMean() &&
+			   wilsonHalfWidth(commitRatio) <= target;
+	}
+
+	/**
+	 * @param ratio - The 0/1 outcomes of the transactions
+	 *
+	 * @return double[] - the low and high ends of the Wilson interval
+	 */
+	private double[] wilson(RunningStats ratio) {
+		double n = ratio.getCount();
+		double p = ratio.getMean();
+		double z2 = z * z;
+		double center = (p + z2 / (2 * n)) / (1 + z2 / n);
+		double halfWidth = z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n));
+		return new double[] {center - halfWidth, center + halfWidth};
+	}
+
+	private double wilsonHalfWidth(RunningStats ratio) {
+		double bounds[] = wilson(ratio);
+		return (bounds[1] - bounds[0]) / 2;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return String - the precision reached, one log line per statistic
+	 */
+	public synchronized String summary() {
+		return "CI Level=" + level + " Target=" + target + "\n" +
+			   "CI Scope=after WUT and WUD, MWD and CDD not applied\n" +
+			   "CI Full Txn Time=" + interval(fullTime) + "\n" +
+			   "CI Commit Time=" + interval(commitTime) + "\n" +
+			   "CI Commit Ratio=" + ratioInterval(commitRatio);
+	}
+
+	/**
+	 * @return String - e.g. 0.983 in [0.912, 0.997] over 60
+	 */
+	private String ratioInterval(RunningStats ratio) {
+		if (ratio.getCount() < 1) {
+			return "n/a over 0";
+		}
+		double bounds[] = wilson(ratio);
+		return String.format("%.3f in [%.3f, %.3f] over %d", ratio.getMean(), bounds[0], bounds[1],
+							 ratio.getCount());
+	}
+
+	/**
+	 * @return String - e.g. 1653728 +/- 41200 (2.5%) over 120
+	 */
+	private String interval(RunningStats stats) {
+		if (stats.getCount() < 2) {
+			return "n/a over " + stats.getCount();
+		}
+		double halfWidth = stats.halfWidth(z);
+		return String.format("%.0f +/- %.0f (%.1f%%) over %d", stats.getMean(), halfWidth,
+							 100 * halfWidth / Math.max(stats.getMean(), 1), stats.getCount());
+	}
+}
@@ -30,6 +30,9 @@ public class DeferredThread extends WorkerThread {
 	 */
 	public void run() {
 		generator = new Random(my_tm.workerSeed);
+		my_tm.stats.workerStarted();
+		txnEvent.begin();
+		startAccounting();
 		
 		PrintStream printStreamOriginal = System.out;
 		if (!my_tm.verbose) {
@@ -50,6 +53,7 @@ public class DeferredThread extends WorkerThread {
 			// Set up I/O streams with the calling thread
 			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
 			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final DelayedOutput reply = new DelayedOutput(output);
 			
 			Message msg = null;
 			Message resp = null;
@@ -59,6 +63,9 @@ public class DeferredThread extends WorkerThread {
 				String msgText = "ACK";
 				// Read and print message
 				msg = (Message)input.readObject();
+				peer = msg.sender; // Reply over the link we were called on
+				my_tm.stats.message(msg.theMessage);
+				my_tm.hearPolicy(msg);
 				System.out.println("[" + socket.getInetAddress() +
 								   ":" + socket.getPort() + "] " + msg.theMessage);
 				
@@ -76,8 +83,7 @@ public class DeferredThread extends WorkerThread {
 					if (my_tm.getPolicy() < update) {
 						my_tm.setPolicy(update);
 					}
-					latencySleep(); // Simulate latency
-					output.writeObject(new Message(msgText)); // send ACK
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency, send ACK
 					break;
 				}
 				else if (msg.theMessage.indexOf("PARAMETERS") != -1) { // Configuration change
@@ -90,10 +96,30 @@ public class DeferredThread extends WorkerThread {
 					System.out.println("Proof: " + my_tm.proof);
 					System.out.println("Validation mode: " + my_tm.validationMode);
 					System.out.println("Policy push mode: " + my_tm.policyPush);
+					my_tm.resetServiceStats(); // A new run starts
 					// No artificial latency needed, send ACK
-					output.writeObject(new Message(msgText));
+					reply.sendNow(new Message(msgText));
 					break;
 				}
+				else if (msg.theMessage.equals("SERVICESTATS")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.serviceSummary()));
+					break;
+				}
+				else if (msg.theMessage.equals("TRACEDUMP")) { // Robot collecting spans
+					reply.sendNow(new Message(Tracer.dump()));
+					break;
+				}
+				else if (msg.theMessage.equals("TXNSERVICE")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.transactionServiceSummary()));
+					break;
+				}
+				else if (msg.theMessage.startsWith("BATCH ")) { // Batched commit requests
+					// Answer each request with the worker holding its transaction
+					msgText = my_tm.batcher.answerBatch(msg.theMessage);
+					reply.setPersistent(); // Don't keep every batch answered
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency
+					continue; // Connection stays open for the next batch
+				}
 				
 				// Separate queries
 				String queryGroup[] = msg.theMessage.split(",");
@@ -134,7 +160,7 @@ public class DeferredThread extends WorkerThread {
 							System.out.println("Pass READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
@@ -174,60 +200,22 @@ public class DeferredThread extends WorkerThread {
 							System.out.println("Pass WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
 											   ": " + msgText);
 						}
 					}
-					else if (query[0].equals("RUNAUTHS")) { // Run authorizations on all queries
-						int version = Integer.parseInt(query[1]);
-						System.out.println("Running auth. on transaction " +
-										   queryLog.get(0).getTransaction() + 
-										   " queries using policy version " +
-										   version);
-						msgText = "TRUE";
-						for (int j = 0; j < queryLog.size(); j++) {
-							if (queryLog.get(j).getPolicy() != version) {
-								if (!checkLocalAuth()) {
-									System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
-													   " for transaction " + queryLog.get(j).getTransaction() +
-													   ", sequence " + queryLog.get(j).getSequence() +
-													   " with policy v. " + version +
-													   ": FAIL");
-									msgText = "YES FALSE"; // (authorization failed)
-								}
-								else {
-									System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
-													   " for transaction " + queryLog.get(j).getTransaction() +
-													   ", sequence " + queryLog.get(j).getSequence() +
-													   " with policy v. " + version +
-													   ": PASS");
-									queryLog.get(j).setPolicy(version); // Update policy in log
-								}
-							}
-							else {
-								System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
-												   " for txn " + queryLog.get(j).getTransaction() +
-												   ", seq " + queryLog.get(j).getSequence() +
-												   " with policy v. " + version +
-												   ": ALREADY DONE");
-							}
-						}
-					}
-					else if (query[0].equals("PTC")) { // Prepare-to-Commit
-						if (my_tm.validationMode >= 0 && my_tm.validationMode <= 2) {
-							msgText = prepareToCommit(0); // No global version
-						}
-						else { // Uses a global version, pass to method
-							msgText = prepareToCommit(Integer.parseInt(query[1]));
-						}
+					else if (query[0].equals("RUNAUTHS") || query[0].equals("PTC")) {
+						// Commit-phase request from the coordinator
+						msgText = answerCommitRequest(query);
 					}
 					else if (query[0].equals("C")) { // COMMIT
 						System.out.println("COMMIT phase - transaction " + query[1]);
 						// Begin 2PC/2PV methods
 						msgText = coordinatorCommit();
+						txnEvent.status = msgText;
 						System.out.println("Status of 2PC/2PV of transaction " + query[1] +
 										   ": " + msgText);
 					}
@@ -235,16 +223,23 @@ public class DeferredThread extends WorkerThread {
 						Thread.sleep(Integer.parseInt(query[1]));
 					}
 					else if (query[0].toUpperCase().equals("EXIT")) { // end of transaction
-						// send exit flag to RobotThread
+						// send exit flag to RobotThread, with KEY=value measurements
 						msgText = "FIN";
 						if (!my_tm.threadSleep) { // append total sleep time to message
-							msgText += " " + totalSleepTime;
+							msgText += " SLEEP=" + totalSleepTime;
+						}
+						msgText += " QWAIT=" + queueWait;
+						msgText += " PH=" + phaseSummary();
+						if (my_tm.lease != null) {
+							msgText += " STALE=" + policyStaleness;
 						}
 					}
 				}
-				latencySleep(); // Simulate latency to RobotThread
+				if (peer == Topology.ROBOT) {
+					my_tm.stats.finished(msgText);
+				}
 				// ACK completion of this query group to RobotThread
-				output.writeObject(new Message(msgText));
+				sendWithLatency(reply, new Message(msgText), peer); // Simulate latency to RobotThread
 			}
 			// Close any SocketGroup connection
 			if (sockList.size() > 0) {
@@ -252,21 +247,23 @@ public class DeferredThread extends WorkerThread {
 				for (Enumeration<Integer> socketList = sockList.keys(); socketList.hasMoreElements();) {
 					msg = new Message("DONE");
 					serverNum = socketList.nextElement();
-					latencySleep(); // Simulate latency
-					sockList.get(serverNum).output.writeObject(msg);
-					sockList.get(serverNum).socket.close();
+					sendWithLatency(sockList.get(serverNum).delayed, msg, serverNum); // Simulate latency
+					sockList.get(serverNum).delayed.close(sockList.get(serverNum).socket);
 				}
 			}
 			
 			// Close and cleanup
 			System.out.println("** Closing connection with " + socket.getInetAddress() +
 							   ":" + socket.getPort() + " **");
-			socket.close();
+			reply.close(socket); // Once any reply in flight has been delivered
 		}
 		catch(Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace(System.err);
 		}
+		endRound();
+		releaseTransaction();
+		my_tm.stats.workerFinished();
 		System.out.flush();
 		System.setOut(printStreamOriginal);
 	}
@@ -0,0 +1,150 @@
+/**
+ * File: DelayedOutput.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Wraps the output stream of a connection so that messages can be delivered
+ * after a simulated latency by the shared TimerWheel. Like a real link, a
+ * connection never reorders: a message is written no earlier than the one
+ * sent before it, whatever their individual latencies.
+ */
+
+import java.net.Socket;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.LinkedList;
+
+public class DelayedOutput {
+	private final ObjectOutputStream output;
+	private LinkedList<Pending> queue = new LinkedList<Pending>();
+	private long lastDue = 0; // Delivery time (us) of the last queued message
+	private volatile boolean broken = false; // a delayed write has failed
+	private volatile boolean persistent = false; // reset the stream after each message
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _output - The output stream of the connection
+	 */
+	public DelayedOutput(ObjectOutputStream _output) {
+		output = _output;
+	}
+
+	/**
+	 * Marks the connection as one that stays open for many messages. The
+	 * stream is then reset after each message, so that neither end keeps
+	 * every message it has seen in its table of back references.
+	 */
+	public void setPersistent() {
+		persistent = true;
+	}
+
+	/**
+	 * Queues a message for delivery after the latency and returns at once.
+	 *
+	 * @param msg - The message to send
+	 * @param latency - The simulated latency in us
+	 */
+	public synchronized void send(Message msg, long latency) {
+		enqueue(new Pending(msg, null), latency);
+	}
+
+	/**
+	 * Writes a message now, or right behind any messages still in flight.
+	 *
+	 * @param msg - The message to send
+	 */
+	public synchronized void sendNow(Message msg) throws IOException {
+		if (queue.isEmpty()) {
+			write(msg);
+		}
+		else {
+			enqueue(new Pending(msg, null), 0);
+		}
+	}
+
+	/**
+	 * Closes the socket once every queued message has been written.
+	 *
+	 * @param socket - The socket of the connection
+	 */
+	public synchronized void close(Socket socket) throws IOException {
+		if (queue.isEmpty()) {
+			socket.close();
+		}
+		else {
+			enqueue(new Pending(null, socket), 0);
+		}
+	}
+
+	/**
+	 * @return boolean - true once a delayed write has failed, i.e. the other
+	 * end has gone away
+	 */
+	public boolean isBroken() {
+		return broken;
+	}
+
+	private void enqueue(Pending item, long latency) {
+		long now = SimClock.micros();
+		item.due = Math.max(now + latency, lastDue);
+		lastDue = item.due;
+		queue.add(item);
+		TimerWheel.getShared().schedule(item.due - now, new Runnable() {
+			public void run() {
+				deliver();
+			}
+		});
+	}
+
+	/**
+	 * Called by the TimerWheel: writes, in order, every message that is due
+	 */
+	private synchronized void deliver() {
+		long now = SimClock.micros();
+		while (!queue.isEmpty() && queue.getFirst().due <= now) {
+			Pending item = queue.removeFirst();
+			try {
+				if (item.socket != null) {
+					item.socket.close();
+				}
+				else {
+					write(item.msg);
+				}
+			}
+			catch (IOException ioe) {
+				broken = true;
+				System.err.println("Delayed delivery Error: " + ioe.getMessage());
+				ioe.printStackTrace(System.err);
+			}
+		}
+		if (!queue.isEmpty() && queue.getFirst().due > now) {
+			// Woken early by clock granularity; try again when the head is due
+			TimerWheel.getShared().schedule(queue.getFirst().due - now, new Runnable() {
+				public void run() {
+					deliver();
+				}
+			});
+		}
+	}
+
+	private void write(Message msg) throws IOException {
+		output.writeObject(msg);
+		if (persistent) {
+			output.reset();
+		}
+	}
+
+	/**
+	 * A message (or a close, if socket is set) waiting for delivery
+	 */
+	class Pending {
+		public final Message msg;
+		public final Socket socket;
+		public long due;
+
+		public Pending(Message _msg, Socket _socket) {
+			msg = _msg;
+			socket = _socket;
+		}
+	}
+}
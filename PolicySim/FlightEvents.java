@@ -0,0 +1,121 @@
+/**
+ * File: FlightEvents.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Java Flight Recorder events for the work of a simulation, so that a
+ * recording of a run, e.g. one started with
+ * java -XX:StartFlightRecording=filename=cs1.jfr CloudServer 1, ties the
+ * CPU and allocation samples of each thread to the transaction and protocol
+ * phase it was working on. An event costs next to nothing unless a recording
+ * with it enabled is running.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class FlightEvents {
+	/**
+	 * A transaction, as run by the RobotThread that issued it (server -1) or
+	 * as served by one worker of a Cloud Server
+	 */
+	@Name("CloudDataSim.TransactionExecute")
+	@Label("Transaction Execute")
+	@Category("CloudDataSim")
+	public static class TransactionExecute extends Event {
+		@Label("Transaction")
+		public int txn;
+		@Label("Server")
+		public int server;
+		@Label("Status")
+		@Description("The outcome, e.g. COMMIT; empty for a participant")
+		public String status;
+	}
+
+	/**
+	 * A round of commit-phase requests sent by a coordinator, from its
+	 * simulated latency to the last response
+	 */
+	@Name("CloudDataSim.CommitRound")
+	@Label("Commit Round")
+	@Category("CloudDataSim")
+	public static class CommitRound extends Event {
+		@Label("Transaction")
+		public int txn;
+		@Label("Server")
+		public int server;
+		@Label("Proof")
+		public String proof;
+		@Label("Validation Mode")
+		public int validationMode;
+		@Label("Phase")
+		@Description("PTC, 2PV, 2PVC or RUNAUTHS")
+		public String phase;
+		@Label("Round")
+		@Description("Number of the round within the transaction, from 1")
+		public int round;
+		@Label("Participants")
+		public int participants;
+	}
+
+	/**
+	 * One local authorization of a query
+	 */
+	@Name("CloudDataSim.ProofEvaluation")
+	@Label("Proof Evaluation")
+	@Category("CloudDataSim")
+	public static class ProofEvaluation extends Event {
+		@Label("Transaction")
+		public int txn;
+		@Label("Server")
+		public int server;
+		@Label("Background")
+		@Description("Proven ahead of commit by the ProofRefresher (PREPROVE)")
+		public boolean background;
+		@Label("Success")
+		public boolean success;
+	}
+
+	/**
+	 * A policy version asked for by a Cloud Server, or served by the Policy
+	 * Server or one of its replicas
+	 */
+	@Name("CloudDataSim.PolicyFetch")
+	@Label("Policy Fetch")
+	@Category("CloudDataSim")
+	public static class PolicyFetch extends Event {
+		@Label("Server")
+		@Description("The server the event was recorded on")
+		public int server;
+		@Label("Requester")
+		public int requester;
+		@Label("Version")
+		public int version;
+		@Label("Leased")
+		@Description("Answered from the server's policy lease")
+		public boolean leased;
+	}
+
+	/**
+	 * A policy update sent to a Cloud Server
+	 */
+	@Name("CloudDataSim.PolicyPush")
+	@Label("Policy Push")
+	@Category("CloudDataSim")
+	public static class PolicyPush extends Event {
+		@Label("Version")
+		public int version;
+		@Label("Target")
+		@Description("address:port of the server, or the number of a subscribed server or replica")
+		public String target;
+		@Label("Latency")
+		@Timespan(Timespan.MICROSECONDS)
+		public long latency;
+		@Label("Subscribed")
+		@Description("Queued on the server's subscription rather than sent on a new connection")
+		public boolean subscribed;
+	}
+}
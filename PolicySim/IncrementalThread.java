@@ -30,6 +30,9 @@ public class IncrementalThread extends PunctualThread {
 	 */
 	public void run() {
 		generator = new Random(my_tm.workerSeed);
+		my_tm.stats.workerStarted();
+		txnEvent.begin();
+		startAccounting();
 		
 		PrintStream printStreamOriginal = System.out;
 		if (!my_tm.verbose) {
@@ -50,6 +53,7 @@ public class IncrementalThread extends PunctualThread {
 			// Set up I/O streams with the calling thread
 			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
 			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final DelayedOutput reply = new DelayedOutput(output);
 			
 			Message msg = null;
 			Message resp = null;
@@ -59,6 +63,9 @@ public class IncrementalThread extends PunctualThread {
 				String msgText = "ACK";
 				// Read and print message
 				msg = (Message)input.readObject();
+				peer = msg.sender; // Reply over the link we were called on
+				my_tm.stats.message(msg.theMessage);
+				my_tm.hearPolicy(msg);
 				System.out.println("[" + socket.getInetAddress() +
 								   ":" + socket.getPort() + "] " + msg.theMessage);
 				
@@ -76,8 +83,7 @@ public class IncrementalThread extends PunctualThread {
 					if (my_tm.getPolicy() < update) {
 						my_tm.setPolicy(update);
 					}
-					latencySleep(); // Simulate latency
-					output.writeObject(new Message(msgText)); // send ACK
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency, send ACK
 					break;
 				}
 				else if (msg.theMessage.indexOf("PARAMETERS") != -1) { // Configuration change
@@ -90,10 +96,30 @@ public class IncrementalThread extends PunctualThread {
 					System.out.println("Proof: " + my_tm.proof);
 					System.out.println("Validation mode: " + my_tm.validationMode);
 					System.out.println("Policy push mode: " + my_tm.policyPush);
+					my_tm.resetServiceStats(); // A new run starts
 					// No artificial latency needed, send ACK
-					output.writeObject(new Message(msgText));
+					reply.sendNow(new Message(msgText));
 					break;
 				}
+				else if (msg.theMessage.equals("SERVICESTATS")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.serviceSummary()));
+					break;
+				}
+				else if (msg.theMessage.equals("TRACEDUMP")) { // Robot collecting spans
+					reply.sendNow(new Message(Tracer.dump()));
+					break;
+				}
+				else if (msg.theMessage.equals("TXNSERVICE")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.transactionServiceSummary()));
+					break;
+				}
+				else if (msg.theMessage.startsWith("BATCH ")) { // Batched commit requests
+					// Answer each request with the worker holding its transaction
+					msgText = my_tm.batcher.answerBatch(msg.theMessage);
+					reply.setPersistent(); // Don't keep every batch answered
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency
+					continue; // Connection stays open for the next batch
+				}
 				
 				// Separate queries
 				String queryGroup[] = msg.theMessage.split(",");
@@ -114,7 +140,7 @@ public class IncrementalThread extends PunctualThread {
 								}
 								else { // VM == 3 OR VM == 4
 									// Get and set freshest global policy
-									my_tm.setPolicy(my_tm.callPolicyServer());
+									my_tm.advancePolicy(globalPolicy());
 									transactionPolicyVersion = my_tm.getPolicy();
 								}
 								System.out.println("Transaction " + query[1] +
@@ -153,7 +179,7 @@ public class IncrementalThread extends PunctualThread {
 							System.out.println("Pass READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
@@ -174,7 +200,7 @@ public class IncrementalThread extends PunctualThread {
 								}
 								else { // VM == 3 OR VM == 4
 									// Get and set freshest global policy
-									my_tm.setPolicy(my_tm.callPolicyServer());
+									my_tm.advancePolicy(globalPolicy());
 									transactionPolicyVersion = my_tm.getPolicy();
 								}
 								System.out.println("Transaction " + query[1] +
@@ -213,7 +239,7 @@ public class IncrementalThread extends PunctualThread {
 							System.out.println("Pass WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
@@ -221,12 +247,13 @@ public class IncrementalThread extends PunctualThread {
 						}
 					}
 					else if (query[0].equals("PTC")) { // Prepare-to-Commit
-						msgText = prepareToCommit(Integer.parseInt(query[1]));
+						msgText = answerCommitRequest(query);
 					}
 					else if (query[0].equals("C")) { // COMMIT
 						System.out.println("COMMIT phase - transaction " + query[1]);
 						// Begin 2PC/2PV methods
 						msgText = coordinatorCommit();
+						txnEvent.status = msgText;
 						System.out.println("Status of 2PC/2PV of transaction " + query[1] +
 										   ": " + msgText);
 					}
@@ -237,16 +264,23 @@ public class IncrementalThread extends PunctualThread {
 						Thread.sleep(Integer.parseInt(query[1]));
 					}
 					else if (query[0].toUpperCase().equals("EXIT")) { // end of transaction
-						// send exit flag to RobotThread
+						// send exit flag to RobotThread, with KEY=value measurements
 						msgText = "FIN";
 						if (!my_tm.threadSleep) { // append total sleep time to message
-							msgText += " " + totalSleepTime;
+							msgText += " SLEEP=" + totalSleepTime;
+						}
+						msgText += " QWAIT=" + queueWait;
+						msgText += " PH=" + phaseSummary();
+						if (my_tm.lease != null) {
+							msgText += " STALE=" + policyStaleness;
 						}
 					}
 				}
-				latencySleep(); // Simulate latency to RobotThread
+				if (peer == Topology.ROBOT) {
+					my_tm.stats.finished(msgText);
+				}
 				// ACK completion of this query group to RobotThread
-				output.writeObject(new Message(msgText));
+				sendWithLatency(reply, new Message(msgText), peer); // Simulate latency to RobotThread
 			}
 			// Close any SocketGroup connection
 			if (sockList.size() > 0) {
@@ -254,21 +288,23 @@ public class IncrementalThread extends PunctualThread {
 				for (Enumeration<Integer> socketList = sockList.keys(); socketList.hasMoreElements();) {
 					msg = new Message("DONE");
 					serverNum = socketList.nextElement();
-					latencySleep(); // Simulate latency
-					sockList.get(serverNum).output.writeObject(msg);
-					sockList.get(serverNum).socket.close();
+					sendWithLatency(sockList.get(serverNum).delayed, msg, serverNum); // Simulate latency
+					sockList.get(serverNum).delayed.close(sockList.get(serverNum).socket);
 				}
 			}
 			
 			// Close and cleanup
 			System.out.println("** Closing connection with " + socket.getInetAddress() +
 							   ":" + socket.getPort() + " **");
-			socket.close();
+			reply.close(socket); // Once any reply in flight has been delivered
 		}
 		catch(Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace(System.err);
 		}
+		endRound();
+		releaseTransaction();
+		my_tm.stats.workerFinished();
 		System.out.flush();
 		System.setOut(printStreamOriginal);
 	}
@@ -307,9 +343,9 @@ public class IncrementalThread extends PunctualThread {
 				}
 				// Send message
 				msg = new Message(query);
-				latencySleep(); // Simulate latency to other server
-				sockList.get(otherServer).output.writeObject(msg);
+				sendWithLatency(sockList.get(otherServer).delayed, msg, otherServer); // Simulate latency to other server
 				msg = (Message)sockList.get(otherServer).input.readObject();
+				my_tm.hearPolicy(msg);
 				System.out.println("Server " + otherServer +
 								   " says: " + msg.theMessage +
 								   " for query " + query);
@@ -330,9 +366,9 @@ public class IncrementalThread extends PunctualThread {
 			
 			// Send regular query
 			msg = new Message(query);
-			latencySleep(); // Simulate latency to other server
-			sockList.get(otherServer).output.writeObject(msg);
+			sendWithLatency(sockList.get(otherServer).delayed, msg, otherServer); // Simulate latency to other server
 			msg = (Message)sockList.get(otherServer).input.readObject();
+			my_tm.hearPolicy(msg);
 			System.out.println("Server " + otherServer +
 							   " says: " + msg.theMessage +
 							   " for passed query " + query);
@@ -368,7 +404,7 @@ public class IncrementalThread extends PunctualThread {
 			else if (my_tm.validationMode == 1 || my_tm.validationMode == 3) {
 				// Have coordinator's server call the policy server and retrieve the
 				// current global master policy version
-				int globalVersion = my_tm.callPolicyServer();
+				int globalVersion = globalPolicy();
 				if (my_tm.policyPush == 2) { // Push at PTC
 					globalVersion++;
 				}
@@ -385,7 +421,7 @@ public class IncrementalThread extends PunctualThread {
 			else { // VM == 2 || VM == 4
 				// Have coordinator's server call the policy server and retrieve the
 				// current global master policy version
-				int globalVersion = my_tm.callPolicyServer();
+				int globalVersion = globalPolicy();
 				if (my_tm.policyPush == 2) { // Push at PTC
 					globalVersion++;
 				}
@@ -418,6 +454,21 @@ public class IncrementalThread extends PunctualThread {
 		return "COMMIT";
 	}
 	
+	/**
+	 * Answers a commit-phase request from the coordinator, whether it arrived
+	 * on this worker's socket or in a batch from the coordinator's server.
+	 * Incremental proofs only use PTC during commit.
+	 *
+	 * @param query - the request split on spaces, i.e. PTC <version>
+	 * @return String - the response to the coordinator
+	 */
+	public String answerCommitRequest(String query[]) {
+		if (query[0].equals("PTC")) { // Prepare-to-Commit
+			return prepareToCommit(Integer.parseInt(query[1]));
+		}
+		return "ACK";
+	}
+	
 	/**
 	 * The prepare-to-commit method that is invoked when participating servers
 	 * received the PTC call from the coordinator
@@ -456,7 +507,7 @@ public class IncrementalThread extends PunctualThread {
 								   transactionPolicyVersion);
 				for (int j = 0; j < queryLog.size(); j++) {
 					if (queryLog.get(j).getPolicy() != globalVersion) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for txn " + queryLog.get(j).getTransaction() +
 											   ", seq " + queryLog.get(j).getSequence() +
@@ -481,6 +532,7 @@ public class IncrementalThread extends PunctualThread {
 										   ", seq " + queryLog.get(j).getSequence() +
 										   " with policy v. " + globalVersion +
 										   ": ALREADY DONE");
+						my_tm.stats.proofSkipped();
 					}
 				}
 				return "YES TRUE"; // Successful re-authorizations
@@ -510,13 +562,12 @@ public class IncrementalThread extends PunctualThread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("PTC " + version);
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "PTC " + version);
 					}
 					catch (Exception e) {
 						System.err.println("prepareCall() send Error: " + e.getMessage());
@@ -541,7 +592,7 @@ public class IncrementalThread extends PunctualThread {
 										   transactionPolicyVersion);
 						for (int j = 0; j < queryLog.size(); j++) {
 							if (queryLog.get(j).getPolicy() != transactionPolicyVersion) {
-								if (!checkLocalAuth()) {
+								if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 									System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 													   " for txn " + queryLog.get(j).getTransaction() +
 													   ", seq " + queryLog.get(j).getSequence() +
@@ -565,6 +616,7 @@ public class IncrementalThread extends PunctualThread {
 												   ", seq " + queryLog.get(j).getSequence() +
 												   " with policy v. " + transactionPolicyVersion +
 												   ": ALREADY DONE");
+								my_tm.stats.proofSkipped();
 							}
 						}
 					}
@@ -575,7 +627,7 @@ public class IncrementalThread extends PunctualThread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response
 						if (msg.theMessage.indexOf("NO") != -1) { // Someone responded NO
 							integrityOkay = false;
@@ -609,7 +661,7 @@ public class IncrementalThread extends PunctualThread {
 										   transactionPolicyVersion);
 						for (int j = 0; j < queryLog.size(); j++) {
 							if (queryLog.get(j).getPolicy() != transactionPolicyVersion) {
-								if (!checkLocalAuth()) {
+								if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 									System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 													   " for txn " + queryLog.get(j).getTransaction() +
 													   ", seq " + queryLog.get(j).getSequence() +
@@ -633,6 +685,7 @@ public class IncrementalThread extends PunctualThread {
 												   ", seq " + queryLog.get(j).getSequence() +
 												   " with policy v. " + transactionPolicyVersion +
 												   ": ALREADY DONE");
+								my_tm.stats.proofSkipped();
 							}
 						}
 					}
@@ -12,6 +12,10 @@
 public class Message implements java.io.Serializable {
 	/** The text string encoded in this Message object */
 	public String theMessage;
+	/** The server that sent this Message, Topology.ROBOT for the Robot */
+	public int sender = Topology.ROBOT;
+	/** The sender's policy version, 0 if it has none, gossiped to the receiver */
+	public int senderPolicy = 0;
 
 	/**
 	 * Constructor.
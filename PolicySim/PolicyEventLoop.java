@@ -0,0 +1,338 @@
+/**
+ * File: PolicyEventLoop.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * The Policy Server's NIO mode (PSMODE NIO). One thread accepts, reads and
+ * writes every connection through a Selector; no thread is parked while a
+ * response waits out its latency, since responses are released to their
+ * connection by the shared TimerWheel. Connections stay open until the client
+ * closes them.
+ *
+ * Clients talk to the Policy Server with ObjectStreams. Each incoming Message
+ * is decoded on its own behind a copy of the stream header, which works as
+ * long as a message does not refer back to an earlier one on the connection:
+ * a client sending more than one message on a connection must reset() its
+ * ObjectOutputStream after each.
+ */
+
+import java.lang.Thread;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.io.*;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class PolicyEventLoop extends Thread {
+	private static final byte STREAM_HEADER[] = {(byte)0xAC, (byte)0xED, 0x00, 0x05};
+	private final PolicyServer my_ps;
+	private final Random generator;
+	private Selector selector;
+	// Connections with output released by the TimerWheel, to be written
+	private ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_ps - The Policy Server
+	 * @param _generator - Random for the latency of the responses
+	 */
+	public PolicyEventLoop(PolicyServer _my_ps, Random _generator) {
+		my_ps = _my_ps;
+		generator = _generator;
+		setName("PolicyEventLoop");
+	}
+
+	public void run() {
+		try {
+			selector = Selector.open();
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind(new InetSocketAddress(my_ps.getListenPort()));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+			System.out.println("Policy Server event loop started");
+
+			while (true) {
+				selector.select();
+				// Write whatever the TimerWheel has released
+				Connection released = ready.poll();
+				while (released != null) {
+					released.flush();
+					released = ready.poll();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						SocketChannel channel = serverChannel.accept();
+						if (channel != null) {
+							channel.configureBlocking(false);
+							channel.socket().setTcpNoDelay(true);
+							Connection conn = new Connection(channel);
+							conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+							my_ps.countConnection(1);
+							conn.flush(); // Any of the stream header left over
+						}
+					}
+					else {
+						Connection conn = (Connection)key.attachment();
+						if (key.isWritable()) {
+							conn.flush();
+						}
+						if (key.isValid() && key.isReadable()) {
+							conn.read();
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			e.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * Answers one request, as PolicyRequestThread does
+	 */
+	private void handle(Connection conn, Message msg) throws IOException {
+		my_ps.requests.increment();
+		System.out.println("[" + conn.channel.socket().getInetAddress() +
+						   ":" + conn.channel.socket().getPort() + "] " + msg.theMessage);
+		if (msg.theMessage.equals("POLICYREQUEST")) {
+			int latency = my_ps.topology.latency(my_ps.serverNumber, msg.sender, 0, generator);
+			conn.send(my_ps.reply("" + PolicyVersion.getCurrent()), latency);
+		}
+		else if (msg.theMessage.startsWith("POLICYSINCE")) {
+			int latency = my_ps.topology.latency(my_ps.serverNumber, msg.sender, 0, generator);
+			int version = Integer.parseInt(msg.theMessage.split(" ")[1]);
+			conn.send(my_ps.reply(PolicyVersion.since(version)), latency);
+		}
+		else if (msg.theMessage.indexOf("POLICYPUSH") != -1) {
+			conn.send(my_ps.reply(my_ps.policyPush(msg.theMessage) ? "ACK" : "FAIL"), 0);
+		}
+		else if (msg.theMessage.startsWith("REPLICATED")) {
+			String msgSplit[] = msg.theMessage.split(" ");
+			my_ps.acknowledge(Integer.parseInt(msgSplit[1]), Integer.parseInt(msgSplit[2]));
+		}
+		else if (msg.theMessage.startsWith("REPLICATE") && my_ps.replicaNumber == 0) {
+			int replica = Integer.parseInt(msg.theMessage.split(" ")[1]);
+			System.out.println("** Replica " + replica + " following this Policy Server **");
+			my_ps.replicaPublisher.subscribe(replica, conn);
+			my_ps.replicaPublisher.publish(replica, PolicyVersion.getCurrent(),
+										   my_ps.topology.latency(my_ps.serverNumber, my_ps.serverNumber, 0, generator));
+		}
+		else if (msg.theMessage.indexOf("SUBSCRIBE") != -1 && my_ps.replicaNumber == 0) {
+			int subscriber = Integer.parseInt(msg.theMessage.split(" ")[1]);
+			System.out.println("** Server " + subscriber + " subscribed to policy updates **");
+			my_ps.publisher.subscribe(subscriber, conn);
+			my_ps.publisher.publish(subscriber, PolicyVersion.getCurrent(),
+									my_ps.topology.latency(my_ps.serverNumber, subscriber, 0, generator));
+		}
+		else if (msg.theMessage.equals("SERVICESTATS")) {
+			conn.send(my_ps.reply(my_ps.serviceSummary()), 0);
+		}
+		else if (msg.theMessage.equals("KILL")) {
+			my_ps.shutdownServer();
+		}
+		else {
+			conn.send(my_ps.reply("FAIL"), 0);
+		}
+	}
+
+	/**
+	 * One client connection: the bytes read but not yet decoded, and the
+	 * encoded responses waiting for their latency or for the socket
+	 */
+	class Connection {
+		public final SocketChannel channel;
+		public SelectionKey key;
+		private ByteArrayOutputStream received = new ByteArrayOutputStream();
+		private boolean headerRead = false;
+		private ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		private final ObjectOutputStream encoder;
+		private LinkedList<Pending> delayed = new LinkedList<Pending>();
+		private LinkedList<ByteBuffer> writable = new LinkedList<ByteBuffer>();
+		private long lastDue = 0; // Release time (us) of the last response
+		private volatile boolean broken = false;
+
+		public Connection(SocketChannel _channel) throws IOException {
+			channel = _channel;
+			// The stream header goes out first, as with new ObjectOutputStream()
+			encoder = new ObjectOutputStream(encoded);
+			encoder.flush();
+			writable.add(ByteBuffer.wrap(encoded.toByteArray()));
+			encoded.reset();
+			flush();
+		}
+
+		/**
+		 * Queues a response to be written after the latency. Called from the
+		 * event loop and, for policy updates, from other threads.
+		 *
+		 * @param msg - The message to send
+		 * @param latency - The simulated latency in us
+		 */
+		public synchronized void send(Message msg, long latency) throws IOException {
+			if (broken) {
+				return;
+			}
+			encoder.writeObject(msg);
+			// Subscriptions keep the connection open for the life of the
+			// server, so don't keep every update sent on it
+			encoder.reset();
+			encoder.flush();
+			Pending item = new Pending(encoded.toByteArray());
+			encoded.reset();
+			long now = SimClock.micros();
+			item.due = Math.max(now + latency, lastDue);
+			lastDue = item.due;
+			delayed.add(item);
+			TimerWheel.getShared().schedule(item.due - now, new Runnable() {
+				public void run() {
+					release();
+				}
+			});
+		}
+
+		/**
+		 * Called by the TimerWheel: hands every due response to the event loop
+		 */
+		private synchronized void release() {
+			long now = SimClock.micros();
+			boolean released = false;
+			while (!delayed.isEmpty() && delayed.getFirst().due <= now) {
+				writable.add(ByteBuffer.wrap(delayed.removeFirst().data));
+				released = true;
+			}
+			if (!delayed.isEmpty() && delayed.getFirst().due > now) {
+				// Woken early by clock granularity; try again when the head is due
+				TimerWheel.getShared().schedule(delayed.getFirst().due - now, new Runnable() {
+					public void run() {
+						release();
+					}
+				});
+			}
+			if (released) {
+				ready.add(this);
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Writes as much of the released output as the socket takes, and
+		 * waits for OP_WRITE if it does not take it all
+		 */
+		public synchronized void flush() {
+			try {
+				while (!writable.isEmpty()) {
+					ByteBuffer buffer = writable.getFirst();
+					channel.write(buffer);
+					if (buffer.hasRemaining()) {
+						break;
+					}
+					writable.removeFirst();
+				}
+				if (key != null && key.isValid()) {
+					key.interestOps(writable.isEmpty() ? SelectionKey.OP_READ :
+									SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+			}
+			catch (IOException ioe) {
+				close();
+			}
+		}
+
+		/**
+		 * Reads what has arrived and handles each complete message
+		 */
+		public void read() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			int count;
+			try {
+				count = channel.read(buffer);
+			}
+			catch (IOException ioe) {
+				count = -1;
+			}
+			if (count < 0) { // The client has closed the connection
+				close();
+				return;
+			}
+			received.write(buffer.array(), 0, count);
+			byte data[] = received.toByteArray();
+			int offset = 0;
+			if (!headerRead) {
+				if (data.length < STREAM_HEADER.length) {
+					return;
+				}
+				offset = STREAM_HEADER.length;
+				headerRead = true;
+			}
+			while (offset < data.length) {
+				ByteArrayInputStream rest = new ByteArrayInputStream(data, offset, data.length - offset);
+				Message msg;
+				try {
+					ObjectInputStream decoder = new ObjectInputStream(new SequenceInputStream(
+						new ByteArrayInputStream(STREAM_HEADER), rest));
+					msg = (Message)decoder.readObject();
+				}
+				catch (EOFException eofe) {
+					break; // The rest of the message is still on the way
+				}
+				catch (Exception e) {
+					System.err.println("Error decoding message: " + e.getMessage());
+					close();
+					return;
+				}
+				offset = data.length - rest.available();
+				handle(this, msg);
+			}
+			received.reset();
+			received.write(data, offset, data.length - offset);
+		}
+
+		/**
+		 * @return boolean - true once the connection has failed or closed
+		 */
+		public boolean isBroken() {
+			return broken;
+		}
+
+		public void close() {
+			synchronized (this) {
+				if (broken) {
+					return;
+				}
+				broken = true;
+				delayed.clear();
+				writable.clear();
+			}
+			my_ps.countConnection(-1);
+			try {
+				channel.close(); // Also cancels the key
+			}
+			catch (IOException ioe) {
+				// Already closed
+			}
+		}
+	}
+
+	/**
+	 * An encoded response waiting for its latency
+	 */
+	class Pending {
+		public final byte data[];
+		public long due;
+
+		public Pending(byte _data[]) {
+			data = _data;
+		}
+	}
+}
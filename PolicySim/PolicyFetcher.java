@@ -0,0 +1,145 @@
+/**
+ * File: PolicyFetcher.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Fetches the global policy version for a CloudServer's workers over one
+ * persistent connection to the Policy Server. Only one request is in flight
+ * at a time and every worker asking meanwhile shares the answer to the next
+ * request, which is sent after all of them asked: a worker never receives a
+ * version that was requested before it called.
+ */
+
+import java.net.Socket;
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PolicyFetcher {
+	private final CloudServer my_tm;
+	private final long window; // us the leader waits for more callers
+	private Socket socket = null;
+	private ObjectOutputStream output;
+	private ObjectInputStream input;
+	private long sent = 0; // requests sent, the next one is sent + 1
+	private long answered = 0; // the last request answered
+	private boolean inFlight = false;
+	private int version = 0; // the answer to request answered
+	private AtomicLong calls = new AtomicLong();
+	private AtomicLong requests = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_tm - The CloudServer
+	 * @param _window - Time in ms a request waits for more callers to share it
+	 */
+	public PolicyFetcher(CloudServer _my_tm, int _window) {
+		my_tm = _my_tm;
+		window = _window * 1000L;
+	}
+
+	/**
+	 * @return int - the global policy version from a request sent after this
+	 * call began, or 0 if the Policy Server could not be reached
+	 */
+	public int fetch() throws InterruptedException {
+		calls.incrementAndGet();
+		long request;
+		synchronized (this) {
+			// Any request already sent was sent too early for us, but one
+			// still waiting out its window is not sent until sent is bumped
+			long need = sent + 1;
+			while (answered < need) {
+				if (!inFlight) {
+					// Lead the request everyone waiting will share
+					inFlight = true;
+					break;
+				}
+				wait();
+			}
+			if (answered >= need) {
+				return version;
+			}
+		}
+		if (window > 0) {
+			// Let more callers join this request
+			SimClock.sleepMicros(window);
+		}
+		synchronized (this) {
+			// Callers from here on wait for the request after this one
+			sent++;
+			request = sent;
+		}
+		int result = request();
+		synchronized (this) {
+			version = result;
+			answered = request;
+			inFlight = false;
+			notifyAll();
+		}
+		return result;
+	}
+
+	/**
+	 * Sends one POLICYREQUEST, reconnecting once if the connection has gone
+	 */
+	private int request() {
+		requests.incrementAndGet();
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				if (socket == null) {
+					ServerID source = my_tm.policySource();
+					socket = new Socket(source.getAddress(), source.getPort());
+					// Small request/response pairs, do not wait to coalesce
+					socket.setTcpNoDelay(true);
+					output = new ObjectOutputStream(socket.getOutputStream());
+					input = new ObjectInputStream(socket.getInputStream());
+				}
+				Message msg = new Message("POLICYREQUEST");
+				msg.sender = my_tm.serverNumber;
+				output.writeObject(msg);
+				// Each message stands alone, as the Policy Server's NIO mode needs
+				output.reset();
+				output.flush();
+				msg = (Message)input.readObject();
+				my_tm.hearPolicy(msg);
+				if (msg.theMessage.equals("FAIL")) {
+					System.out.println("*** CloudServer Policy Request FAIL ***");
+					return 0;
+				}
+				return Integer.parseInt(msg.theMessage);
+			}
+			catch (Exception e) {
+				if (attempt > 0) {
+					System.err.println("Error: " + e.getMessage());
+					e.printStackTrace(System.err);
+				}
+				close();
+			}
+		}
+		return 0; // FAIL
+	}
+
+	private void close() {
+		try {
+			if (socket != null) {
+				socket.close();
+			}
+		}
+		catch (IOException ioe) {
+			// Already closed
+		}
+		socket = null;
+	}
+
+	public void reset() {
+		calls.set(0);
+		requests.set(0);
+	}
+
+	/**
+	 * @return String - FETCH_CALLS=<n> FETCH_REQUESTS=<n>
+	 */
+	public String summary() {
+		return "FETCH_CALLS=" + calls.get() + " FETCH_REQUESTS=" + requests.get();
+	}
+}
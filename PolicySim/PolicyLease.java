@@ -0,0 +1,106 @@
+/**
+ * File: PolicyLease.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * A time-bounded lease on the global policy version (LEASE mode). Within the
+ * lease a CloudServer validates against the leased version without asking the
+ * Policy Server; the version is never older than the lease time. A background
+ * thread renews the lease at half its length, so a worker only has to fetch
+ * the version itself when renewal has fallen behind.
+ */
+
+import java.lang.Thread;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PolicyLease extends Thread {
+	private final CloudServer my_tm;
+	private final long length; // us
+	private volatile Grant grant = null;
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong renewals = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_tm - The CloudServer
+	 * @param _length - The lease time in ms
+	 */
+	public PolicyLease(CloudServer _my_tm, int _length) {
+		my_tm = _my_tm;
+		length = _length * 1000L;
+		setDaemon(true);
+		setName("PolicyLease");
+	}
+
+	/**
+	 * @return Grant - a lease that has not expired, fetched anew if need be
+	 */
+	public Grant get() {
+		Grant current = grant;
+		if (current != null && SimClock.micros() < current.expiry) {
+			hits.incrementAndGet();
+			return current;
+		}
+		misses.incrementAndGet();
+		return renew();
+	}
+
+	/**
+	 * Fetches the global version and starts a new lease on it, counted from
+	 * when the request was sent
+	 */
+	private Grant renew() {
+		long asked = SimClock.micros();
+		int version = my_tm.callPolicyServer();
+		synchronized (this) {
+			if (version == 0) { // Policy Server unreachable, keep what we have
+				return (grant != null) ? grant : new Grant(0, asked, asked);
+			}
+			if (grant == null || asked > grant.fetched) {
+				grant = new Grant(version, asked, asked + length);
+			}
+			return grant;
+		}
+	}
+
+	public void run() {
+		while (true) {
+			SimClock.sleepMicros(length / 2);
+			renew();
+			renewals.incrementAndGet();
+		}
+	}
+
+	public void reset() {
+		hits.set(0);
+		misses.set(0);
+		renewals.set(0);
+	}
+
+	/**
+	 * @return String - LEASE=<ms> LEASE_HITS=<n> LEASE_MISSES=<n>
+	 * LEASE_RENEWALS=<n>
+	 */
+	public String summary() {
+		return "LEASE=" + (length / 1000) +
+			   " LEASE_HITS=" + hits.get() +
+			   " LEASE_MISSES=" + misses.get() +
+			   " LEASE_RENEWALS=" + renewals.get();
+	}
+
+	/**
+	 * A leased version: valid until expiry, fetched at fetched (both in us)
+	 */
+	static class Grant {
+		public final int version;
+		public final long fetched;
+		public final long expiry;
+
+		public Grant(int _version, long _fetched, long _expiry) {
+			version = _version;
+			fetched = _fetched;
+			expiry = _expiry;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * File: PolicyPublisher.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Keeps the policy update channel of each subscribed CloudServer open and
+ * publishes new policy versions on it. A publish only queues the update on
+ * the channel for delivery after the link latency, so no thread or connection
+ * is created per update.
+ */
+
+import java.net.Socket;
+import java.io.IOException;
+import java.util.Hashtable;
+
+public class PolicyPublisher {
+	private Hashtable<Integer, Subscription> subscribers = new Hashtable<Integer, Subscription>();
+
+	public PolicyPublisher() {
+	}
+
+	/**
+	 * Registers the channel of a CloudServer, replacing any earlier one
+	 *
+	 * @param server - The subscribing server number
+	 * @param socket - The socket of the channel
+	 * @param output - The output side of the channel
+	 */
+	public void subscribe(int server, Socket socket, DelayedOutput output) {
+		output.setPersistent(); // Open for the life of the server
+		Subscription old = subscribers.put(server, new Subscription(socket, output, null));
+		if (old != null) {
+			closeQuietly(old);
+		}
+	}
+
+	/**
+	 * Registers the channel of a CloudServer served by the event loop
+	 *
+	 * @param server - The subscribing server number
+	 * @param connection - The connection of the channel
+	 */
+	public void subscribe(int server, PolicyEventLoop.Connection connection) {
+		Subscription old = subscribers.put(server, new Subscription(null, null, connection));
+		if (old != null) {
+			closeQuietly(old);
+		}
+	}
+
+	/**
+	 * @return boolean - true if the server has a working channel
+	 */
+	public boolean isSubscribed(int server) {
+		Subscription sub = subscribers.get(server);
+		if (sub != null && sub.isBroken()) {
+			// The server has gone away, let the caller fall back
+			subscribers.remove(server, sub);
+			closeQuietly(sub);
+			return false;
+		}
+		return sub != null;
+	}
+
+	/**
+	 * Queues a policy update for a subscribed server
+	 *
+	 * @param server - The destination server number
+	 * @param version - The new policy version
+	 * @param latency - Latency of the link to the server in us
+	 *
+	 * @return boolean - false if the server is not subscribed, in which case
+	 * the caller has to push the update itself
+	 */
+	public boolean publish(int server, int version, int latency) {
+		if (!isSubscribed(server)) {
+			return false;
+		}
+		Subscription sub = subscribers.get(server);
+		if (sub == null) { // Removed in the meantime
+			return false;
+		}
+		FlightEvents.PolicyPush event = new FlightEvents.PolicyPush();
+		event.begin();
+		Message msg = new Message("POLICYUPDATE " + version);
+		msg.sender = PolicyServer.serverNumber;
+		msg.senderPolicy = version;
+		if (sub.connection != null) {
+			try {
+				sub.connection.send(msg, latency);
+			}
+			catch (IOException ioe) {
+				sub.connection.close();
+				return false;
+			}
+		}
+		else {
+			sub.output.send(msg, latency);
+		}
+		event.version = version;
+		event.target = "" + server;
+		event.latency = latency;
+		event.subscribed = true;
+		event.commit();
+		return true;
+	}
+
+	private void closeQuietly(Subscription sub) {
+		if (sub.connection != null) {
+			sub.connection.close();
+			return;
+		}
+		try {
+			sub.output.close(sub.socket);
+		}
+		catch (IOException ioe) {
+			// Already closed
+		}
+	}
+
+	/**
+	 * The open channel of one CloudServer, either a socket with its
+	 * DelayedOutput or a connection of the event loop
+	 */
+	class Subscription {
+		public final Socket socket;
+		public final DelayedOutput output;
+		public final PolicyEventLoop.Connection connection;
+
+		public Subscription(Socket _socket, DelayedOutput _output, PolicyEventLoop.Connection _connection) {
+			socket = _socket;
+			output = _output;
+			connection = _connection;
+		}
+
+		public boolean isBroken() {
+			return (connection != null) ? connection.isBroken() : output.isBroken();
+		}
+	}
+}
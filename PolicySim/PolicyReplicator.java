@@ -0,0 +1,81 @@
+/**
+ * File: PolicyReplicator.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Runs on a read replica of the Policy Server. It follows the primary over
+ * one connection: the primary sends each new policy version in order, the
+ * replica applies it and acknowledges it, so the version the replica hands
+ * out is never older than the last one it acknowledged.
+ */
+
+import java.lang.Thread;
+import java.net.Socket;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.io.*;
+
+public class PolicyReplicator extends Thread {
+	private final int replicaNumber;
+	private final ServerID primary;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _replicaNumber - This replica's number in replicaConfig.txt
+	 * @param _primary - The primary Policy Server
+	 */
+	public PolicyReplicator(int _replicaNumber, ServerID _primary) {
+		replicaNumber = _replicaNumber;
+		primary = _primary;
+		setDaemon(true);
+		setName("PolicyReplicator");
+	}
+
+	public void run() {
+		try {
+			Socket socket = null;
+			while (socket == null) {
+				try {
+					socket = new Socket(primary.getAddress(), primary.getPort());
+				}
+				catch (ConnectException ce) {
+					// The primary is not up yet
+					Thread.sleep(100);
+				}
+			}
+			socket.setTcpNoDelay(true);
+			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+			send(output, "REPLICATE " + replicaNumber);
+			System.out.println("Replica " + replicaNumber + " following the primary Policy Server");
+			while (true) {
+				Message msg = (Message)input.readObject();
+				if (msg.theMessage.indexOf("POLICYUPDATE") != -1) {
+					int version = PolicyVersion.advanceTo(Integer.parseInt(msg.theMessage.split(" ")[1]),
+														  "REPLICATED");
+					// Acknowledge the watermark now being served
+					send(output, "REPLICATED " + replicaNumber + " " + version);
+				}
+			}
+		}
+		catch (EOFException eofe) {
+			System.out.println("Primary Policy Server has shut down");
+		}
+		catch (SocketException se) {
+			System.out.println("Primary Policy Server has shut down");
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			e.printStackTrace(System.err);
+		}
+	}
+
+	private void send(ObjectOutputStream output, String text) throws IOException {
+		Message msg = new Message(text);
+		msg.sender = PolicyServer.serverNumber;
+		output.writeObject(msg);
+		// Each message stands alone, as the Policy Server's NIO mode needs
+		output.reset();
+		output.flush();
+	}
+}
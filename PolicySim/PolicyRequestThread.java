@@ -8,24 +8,26 @@
 import java.lang.Thread;
 import java.net.Socket;
 import java.net.ConnectException;
+import java.net.SocketException;
 import java.io.*;
+import java.util.Random;
 
 public class PolicyRequestThread extends Thread {
 	private PolicyServer my_ps;
     private final Socket socket; // The socket that we'll be talking over
-	private final int latency;
+	private final Random generator;
 	
 	/**
 	 * Constructor that sets up the thread
 	 *
 	 * @param _my_ps
 	 * @param _socket
-	 * @param _latency
+	 * @param _generator - Random for the latency of the response
 	 */
-	public PolicyRequestThread(PolicyServer _my_ps, Socket _socket, int _latency) {
+	public PolicyRequestThread(PolicyServer _my_ps, Socket _socket, Random _generator) {
 		my_ps = _my_ps;
 		socket = _socket;
-		latency = _latency;
+		generator = _generator;
 	}
 	
 	public void run() {
@@ -40,6 +42,7 @@ public class PolicyRequestThread extends Thread {
 			}));
 		}
 
+		my_ps.countConnection(1);
 		try {
 			// Print incoming message
 			System.out.println("** New connection from " + socket.getInetAddress() +
@@ -47,101 +50,121 @@ public class PolicyRequestThread extends Thread {
 			
 			// Set up I/O streams with the calling thread
 			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
-			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final DelayedOutput output = new DelayedOutput(new ObjectOutputStream(socket.getOutputStream()));
 			
 			Message msg = null;
+			boolean keepOpen = false; // true for a subscription
 
-			// Read and print message
-			msg = (Message)input.readObject();
-			System.out.println("[" + socket.getInetAddress() +
-							   ":" + socket.getPort() + "] " + msg.theMessage);
+			// Serve requests until the client closes the connection, e.g. the
+			// persistent connection of a CloudServer's PolicyFetcher
+			while (!keepOpen) {
+				// Read and print message
+				try {
+					msg = (Message)input.readObject();
+				}
+				catch (EOFException eofe) {
+					break;
+				}
+				catch (SocketException se) {
+					break;
+				}
+				my_ps.requests.increment();
+				System.out.println("[" + socket.getInetAddress() +
+								   ":" + socket.getPort() + "] " + msg.theMessage);
 			
-			if (msg.theMessage.equals("POLICYREQUEST")) {
-				if (latency > 0) {
-					// Sleep to simulate latency of response
-					try {
-						Thread.sleep(latency);
+				if (msg.theMessage.equals("POLICYREQUEST")) {
+					FlightEvents.PolicyFetch event = new FlightEvents.PolicyFetch();
+					event.begin();
+					// Latency of the link back to the requesting server
+					int latency = my_ps.topology.latency(my_ps.serverNumber, msg.sender, 0, generator);
+					// Return the current policy version to the requester
+					System.out.println("** Policy version request from " + socket.getInetAddress() +
+									   ":" + socket.getPort() + " **");
+					if (my_ps.timerWheel) {
+						// Deliver after the latency without holding this thread
+						output.send(my_ps.reply("" + PolicyVersion.getCurrent()), latency);
 					}
-					catch(Exception e) {
-						System.err.println("latencySleep() Error: " + e.getMessage());
-						e.printStackTrace(System.err);
+					else {
+						// Wait to simulate latency of response
+						SimClock.sleepMicros(latency);
+						output.sendNow(my_ps.reply("" + PolicyVersion.getCurrent()));
 					}
+					event.server = my_ps.serverNumber;
+					event.requester = msg.sender;
+					event.version = PolicyVersion.getCurrent();
+					event.commit();
 				}
-				// Return the current policy version to the requester
-				System.out.println("** Policy version request from " + socket.getInetAddress() +
-								   ":" + socket.getPort() + " **");
-				output.writeObject(new Message("" + PolicyVersion.getCurrent()));
-			}
-			else if (msg.theMessage.equals("POLICYPUSH")) {
-				// Increment the policy version and distribute to all servers
-				PolicyThread thread = null;
-				int policyVersion = PolicyVersion.getCurrent();
-				if (PolicyVersion.getCurrent() < Integer.MAX_VALUE) {
-					// Update policy version
-					PolicyVersion.updatePolicy();
-					policyVersion = PolicyVersion.getCurrent();
-					System.out.println("Policy version updated to v. " + policyVersion);
-					// Spread the word, no latency
-					for (int i = 1; i <= my_ps.maxServers; i++) {
-						thread = new PolicyThread(policyVersion,
-												  my_ps.serverList.get(i).getAddress(),
-												  my_ps.serverList.get(i).getPort(),
-												  0);
-						thread.start();
+				else if (msg.theMessage.startsWith("POLICYSINCE")) {
+					// Return the changes made after the requester's version
+					FlightEvents.PolicyFetch event = new FlightEvents.PolicyFetch();
+					event.begin();
+					int latency = my_ps.topology.latency(my_ps.serverNumber, msg.sender, 0, generator);
+					int version = Integer.parseInt(msg.theMessage.split(" ")[1]);
+					if (my_ps.timerWheel) {
+						output.send(my_ps.reply(PolicyVersion.since(version)), latency);
 					}
+					else {
+						SimClock.sleepMicros(latency);
+						output.sendNow(my_ps.reply(PolicyVersion.since(version)));
+					}
+					event.server = my_ps.serverNumber;
+					event.requester = msg.sender;
+					event.version = PolicyVersion.getCurrent();
+					event.commit();
 				}
-				// ACK sender of request
-				output.writeObject(new Message("ACK"));
-			}
-			else if (msg.theMessage.equals("POLICYPUSH UPDATEONLY")) {
-				// Increment policy version, but do not distribute to servers
-				PolicyThread thread = null;
-				int policyVersion = PolicyVersion.getCurrent();
-				if (policyVersion < Integer.MAX_VALUE) {
-					// Update policy version
-					PolicyVersion.updatePolicy();
-					policyVersion = PolicyVersion.getCurrent();
-					System.out.println("Policy version updated to v. " + policyVersion);
+				else if (msg.theMessage.indexOf("POLICYPUSH") != -1) {
+					// Update the policy version and distribute as asked, then
+					// ACK sender of request
+					output.sendNow(my_ps.reply(my_ps.policyPush(msg.theMessage) ? "ACK" : "FAIL"));
 				}
-				// ACK sender of request
-				output.writeObject(new Message("ACK"));
-			}
-			else if (msg.theMessage.indexOf("POLICYPUSH") != -1) {
-				// We'll be sending an update to an individual server
-				PolicyThread thread = null;
-				String msgSplit[] = msg.theMessage.split(" ");
-				// Get destination server
-				int dest = Integer.parseInt(msgSplit[1]);
-				int policyVersion = PolicyVersion.getCurrent();
-				if (policyVersion < Integer.MAX_VALUE) {
-					// Update policy version
-					PolicyVersion.updatePolicy();
-					policyVersion = PolicyVersion.getCurrent();
-					// Send to destination, no latency
-					thread = new PolicyThread(policyVersion,
-											  my_ps.serverList.get(dest).getAddress(),
-											  my_ps.serverList.get(dest).getPort(),
-											  0);
-					thread.start();
+				else if (msg.theMessage.startsWith("REPLICATED")) {
+					// A replica now serves this version
+					String msgSplit[] = msg.theMessage.split(" ");
+					my_ps.acknowledge(Integer.parseInt(msgSplit[1]), Integer.parseInt(msgSplit[2]));
+				}
+				else if (msg.theMessage.startsWith("REPLICATE") && my_ps.replicaNumber == 0) {
+					// Send versions to this replica over this connection, and
+					// keep reading its acknowledgements
+					int replica = Integer.parseInt(msg.theMessage.split(" ")[1]);
+					System.out.println("** Replica " + replica + " following this Policy Server **");
+					my_ps.replicaPublisher.subscribe(replica, socket, output);
+					my_ps.replicaPublisher.publish(replica, PolicyVersion.getCurrent(),
+												   my_ps.topology.latency(my_ps.serverNumber, my_ps.serverNumber, 0, generator));
+				}
+				else if (msg.theMessage.indexOf("SUBSCRIBE") != -1 && my_ps.replicaNumber == 0) {
+					// Keep this connection as the server's policy update channel
+					int subscriber = Integer.parseInt(msg.theMessage.split(" ")[1]);
+					System.out.println("** Server " + subscriber + " subscribed to policy updates **");
+					my_ps.publisher.subscribe(subscriber, socket, output);
+					// Catch up on any update made since the server asked for the
+					// current version
+					my_ps.publisher.publish(subscriber, PolicyVersion.getCurrent(),
+											my_ps.topology.latency(my_ps.serverNumber, subscriber, 0, generator));
+					keepOpen = true;
+				}
+				else if (msg.theMessage.equals("SERVICESTATS")) {
+					// Report the requests and pushes handled during the run
+					output.sendNow(my_ps.reply(my_ps.serviceSummary()));
+				}
+				else if (msg.theMessage.equals("KILL")) {
+					// Shut down the server
+					my_ps.shutdownServer();
+				}
+				else {
+					output.sendNow(my_ps.reply("FAIL"));
 				}
-				// ACK sender of request
-				output.writeObject(new Message("ACK"));
-			}
-			else if (msg.theMessage.equals("KILL")) {
-				// Shut down the server
-				my_ps.shutdownServer();
-			}
-			else {
-				output.writeObject(new Message("FAIL"));
 			}
 			
-			// Close the connection
-			socket.close();
+			// Close the connection once the response is delivered
+			if (!keepOpen) {
+				output.close(socket);
+			}
 		}
 		catch (Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace(System.err);
 		}
+		my_ps.countConnection(-1);
 		System.out.flush();
 		System.setOut(printStreamOriginal);
 	}
@@ -10,29 +10,54 @@ import java.net.Socket;
 import java.net.ServerSocket;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PolicyServer {
 	final static int serverNumber = 0; // Default number for this server
 	static int maxServers;
 	static int latencyMin;
 	static int latencyMax;
+	static boolean timerWheel = false;
+	static String topologyFile = null;
+	static Topology topology; // Latency of each link, from TOPO or LMIN/LMAX
 	static int policyUpdateMin;
 	static int policyUpdateMax;
 	static ArrayList<ServerID> serverList;
+	static PolicyPublisher publisher = new PolicyPublisher(); // Subscribed CloudServers
+	static int pushWindow = 0; // ms an update waits for newer ones
+	static PushDispatcher dispatcher;
+	static String mode = "THREAD"; // THREAD or NIO
+	static LongAdder requests = new LongAdder(); // Messages handled, striped
+	static AtomicLong connections = new AtomicLong(); // Open connections
+	static AtomicLong peakConnections = new AtomicLong();
+	static int replicaNumber = 0; // 0 for the primary, else a read replica
+	static int replicaCount = 0; // Read replicas in use, from REPLICA
+	static ArrayList<ServerID> replicaList;
+	static PolicyPublisher replicaPublisher = new PolicyPublisher(); // Replicas following the primary
+	static Hashtable<Integer, Integer> replicaWatermarks = new Hashtable<Integer, Integer>();
+	static int lastReplicated = 0;
+	static Random replicaGenerator = new Random(new Date().getTime());
 	static boolean verbose = false;
+	static int sampleInterval = 0; // ms between samples, 0 for none
 
 	public PolicyServer() {
 	}
 
     public static void main(String[] args) {	
-		if (args.length == 1) {
-			if (args[0].equalsIgnoreCase("V")) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equalsIgnoreCase("V")) {
 				verbose = true;
 			}
 			else {
-				System.err.println("Error parsing argument. Please use valid argument.");
-				System.err.println("Usage: java PolicyServer <V|v>\n");
-				System.exit(-1);
+				try {
+					replicaNumber = Integer.parseInt(args[i]);
+				}
+				catch (Exception e) {
+					System.err.println("Error parsing argument. Please use valid argument.");
+					System.err.println("Usage: java PolicyServer <Replica Number> <V|v>\n");
+					System.exit(-1);
+				}
 			}
 	    }
 
@@ -44,6 +69,15 @@ public class PolicyServer {
 			System.err.println("Error loading parameters file. Exiting.");
 			System.exit(-1);
 		}
+		// Load the network topology, if any
+		try {
+			topology = Topology.load(topologyFile, latencyMin, latencyMax);
+		}
+		catch (Exception e) {
+			System.err.println("Error loading topology file. Exiting.");
+			e.printStackTrace(System.err);
+			System.exit(-1);
+		}
 		// Load server information from configuration file
 		serverList = loadConfig("serverConfig.txt");
 		if (serverList == null) {
@@ -53,11 +87,35 @@ public class PolicyServer {
 		else {
 			System.out.println("Configuration file loaded. Policy Engine is ready.");
 		}
+		// Load the read replicas, if any
+		if (replicaCount > 0 || replicaNumber > 0) {
+			replicaList = loadConfig("replicaConfig.txt");
+			if (replicaList == null || replicaList.size() < Math.max(replicaCount, replicaNumber)) {
+				System.err.println("Error loading replica configuration file. Exiting.");
+				System.exit(-1);
+			}
+		}
 		
 		PolicyServer server = new PolicyServer();
+		dispatcher = new PushDispatcher(server, pushWindow);
+		new PolicyServerStats().register();
+		if (sampleInterval > 0) {
+			new Sampler("Samples_" + (replicaNumber > 0 ? "Replica" + replicaNumber : "PolicyServer") + ".csv",
+						"policy_version,pending_pushes,connections,requests",
+						sampleInterval, new Sampler.Source() {
+				public String sample() {
+					return PolicyVersion.getCurrent() + "," + dispatcher.depth() + "," +
+						   connections.get() + "," + requests.sum();
+				}
+			}).start();
+		}
 		
+		if (replicaNumber > 0) {
+			// A read replica takes its versions from the primary
+			new PolicyReplicator(replicaNumber, serverList.get(serverNumber)).start();
+		}
 		// Allow disabling of policy updater by setting update frequencies to 0
-		if ((policyUpdateMin + policyUpdateMax) > 0) {
+		else if ((policyUpdateMin + policyUpdateMax) > 0) {
 			// Launch the Policy Updater
 			try {
 				PolicyUpdater puthread = new PolicyUpdater(server);
@@ -73,12 +131,17 @@ public class PolicyServer {
     }
 	
 	public void start(PolicyServer server) {
+		if (mode.equals("NIO")) {
+			// One thread serves every connection
+			new PolicyEventLoop(server, new Random(new Date().getTime())).run();
+			return;
+		}
 		try {
 			// Create and seed random number generator
 			Random generator = new Random(new Date().getTime());
 			
 			// This is basically just listens for new client connections
-			final ServerSocket serverSock = new ServerSocket(serverList.get(serverNumber).getPort());
+			final ServerSocket serverSock = new ServerSocket(getListenPort());
 			
 			// A simple infinite loop to accept connections requesting current
 			// Policy version
@@ -87,16 +150,10 @@ public class PolicyServer {
 			while(true) {
 				// Accept an incoming connection
 				sock = serverSock.accept();
-				// Create a thread to handle this connection
-				if (latencyMax > latencyMin) { // Range of latency values
-					prthread = new PolicyRequestThread(server, sock, (latencyMin + generator.nextInt(latencyMax - latencyMin)));
-				}
-				else if (latencyMax == 0) { // No artificial latency
-					prthread = new PolicyRequestThread(server, sock, 0);
-				}
-				else { // Fixed latency value
-					prthread = new PolicyRequestThread(server, sock, latencyMax);
-				}
+				sock.setTcpNoDelay(true); // Connections may carry many small messages
+				// Create a thread to handle this connection, it draws the
+				// latency of its response once it knows the requester
+				prthread = new PolicyRequestThread(server, sock, generator);
 				prthread.start();
 			}
 		}
@@ -215,12 +272,33 @@ public class PolicyServer {
 					else if (tuple[0].equals("LMAX")) {
 						latencyMax = Integer.parseInt(tuple[1]);
 					}
+					else if (tuple[0].equals("TW")) {
+						timerWheel = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("TOPO")) {
+						topologyFile = tuple[1];
+					}
+					else if (tuple[0].equals("REPLICA")) {
+						replicaCount = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("PSMODE")) {
+						mode = tuple[1].toUpperCase();
+					}
+					else if (tuple[0].equals("PHIST")) {
+						PolicyVersion.setHistory(Integer.parseInt(tuple[1]));
+					}
+					else if (tuple[0].equals("PCW")) {
+						pushWindow = Integer.parseInt(tuple[1]);
+					}
 					else if (tuple[0].equals("PMIN")) {
 						policyUpdateMin = Integer.parseInt(tuple[1]);
 					}
 					else if (tuple[0].equals("PMAX")) {
 						policyUpdateMax = Integer.parseInt(tuple[1]);
 					}
+					else if (tuple[0].equals("SAMPLE")) {
+						sampleInterval = Integer.parseInt(tuple[1]);
+					}
 				}
 				catch (Exception e) {
 					System.out.println("Error while parsing \"" + filename +
@@ -254,6 +332,134 @@ public class PolicyServer {
 		return true; // success
 	}
 	
+	/**
+	 * Handles the POLICYPUSH requests: POLICYPUSH updates the policy version
+	 * and sends it to all servers, POLICYPUSH <n> to server n only, and
+	 * POLICYPUSH UPDATEONLY to none
+	 *
+	 * @param request - The request
+	 */
+	public static boolean policyPush(String request) {
+		String msgSplit[] = request.split(" ");
+		if (replicaNumber > 0) {
+			System.out.println("Policy pushes go to the primary Policy Server");
+			return false;
+		}
+		if (PolicyVersion.getCurrent() == Integer.MAX_VALUE) {
+			return true;
+		}
+		if (msgSplit.length == 1) {
+			int policyVersion = PolicyVersion.updatePolicy("PUSH");
+			System.out.println("Policy version updated to v. " + policyVersion);
+			// Spread the word, no latency
+			for (int i = 1; i <= maxServers; i++) {
+				dispatcher.dispatch(i, policyVersion, 0);
+			}
+		}
+		else if (msgSplit[1].equals("UPDATEONLY")) {
+			int policyVersion = PolicyVersion.updatePolicy("UPDATEONLY");
+			System.out.println("Policy version updated to v. " + policyVersion);
+		}
+		else {
+			// Send to destination, no latency
+			int dest = Integer.parseInt(msgSplit[1]);
+			dispatcher.dispatch(dest, PolicyVersion.updatePolicy("PUSH_" + dest), 0);
+		}
+		replicate();
+		return true;
+	}
+
+	/**
+	 * Builds a response carrying this Policy Server's current version, for
+	 * CloudServers that gossip it
+	 *
+	 * @param text - The response
+	 *
+	 * @return Message - the response to send
+	 */
+	public static Message reply(String text) {
+		Message msg = new Message(text);
+		msg.sender = serverNumber;
+		msg.senderPolicy = PolicyVersion.getCurrent();
+		return msg;
+	}
+
+	/**
+	 * @return int - the port of this primary or replica
+	 */
+	public static int getListenPort() {
+		if (replicaNumber > 0) {
+			return replicaList.get(replicaNumber - 1).getPort();
+		}
+		return serverList.get(serverNumber).getPort();
+	}
+
+	/**
+	 * Sends the current version to the read replicas. Versions go out in
+	 * increasing order on each replica's channel.
+	 */
+	public static synchronized void replicate() {
+		int version = PolicyVersion.getCurrent();
+		if (version <= lastReplicated) {
+			return;
+		}
+		lastReplicated = version;
+		for (int i = 1; i <= replicaCount; i++) {
+			replicaPublisher.publish(i, version, topology.latency(serverNumber, serverNumber, 0, replicaGenerator));
+		}
+	}
+
+	/**
+	 * Records the version a replica has acknowledged
+	 *
+	 * @param replica - The replica number
+	 * @param version - The version it now serves
+	 */
+	public static void acknowledge(int replica, int version) {
+		replicaWatermarks.put(replica, version);
+	}
+
+	/**
+	 * Tracks the number of connections being served at once
+	 *
+	 * @param change - 1 for a new connection, -1 for a closed one
+	 */
+	public static void countConnection(int change) {
+		long open = connections.addAndGet(change);
+		long peak = peakConnections.get();
+		while (open > peak && !peakConnections.compareAndSet(peak, open)) {
+			peak = peakConnections.get();
+		}
+	}
+
+	/**
+	 * @return String - the pushes made and requests handled since startup,
+	 * e.g. SERVER=0 PUSHES=.. PCW=.. PSMODE=NIO REQUESTS=<n> PEAK_CONNECTIONS=<n>
+	 */
+	public static String serviceSummary() {
+		if (replicaNumber > 0) {
+			return "SERVER=" + serverNumber + " REPLICA=" + replicaNumber +
+				   " VERSION=" + PolicyVersion.getCurrent() +
+				   " PSMODE=" + mode +
+				   " REQUESTS=" + requests.sum() +
+				   " PEAK_CONNECTIONS=" + peakConnections.get();
+		}
+		String summary = dispatcher.summary() +
+						 " PSMODE=" + mode +
+						 " REQUESTS=" + requests.sum() +
+						 " PEAK_CONNECTIONS=" + peakConnections.get();
+		if (replicaCount > 0) {
+			// How far the furthest behind replica trails the primary
+			int lag = 0;
+			for (int i = 1; i <= replicaCount; i++) {
+				Integer watermark = replicaWatermarks.get(i);
+				lag = Math.max(lag, PolicyVersion.getCurrent() - (watermark == null ? 0 : watermark));
+			}
+			summary += " REPLICAS=" + replicaCount + " REPLICA_LAG=" + lag;
+		}
+		return summary;
+	}
+
 	/**
      * Allows the Robot to shut down the server.
      */
@@ -0,0 +1,57 @@
+/**
+ * File: PolicyServerStats.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Exposes the Policy Server's counters over JMX while a run is in progress.
+ * The counters themselves are the PolicyServer's; this only reads them.
+ */
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+public class PolicyServerStats implements PolicyServerStatsMBean {
+	private final long started = SimClock.micros();
+
+	/**
+	 * Makes the metrics visible to JMX clients of this JVM
+	 */
+	public void register() {
+		try {
+			String name = "CloudDataSim:type=PolicyServer";
+			if (PolicyServer.replicaNumber > 0) {
+				name += ",replica=" + PolicyServer.replicaNumber;
+			}
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+		}
+		catch (Exception e) {
+			System.err.println("Error registering JMX metrics: " + e.getMessage());
+		}
+	}
+
+	public int getCurrentVersion() {
+		return PolicyVersion.getCurrent();
+	}
+
+	public long getRequests() {
+		return PolicyServer.requests.sum();
+	}
+
+	public double getRequestRate() {
+		return PolicyServer.requests.sum() / (Math.max(SimClock.micros() - started, 1) / 1000000.0);
+	}
+
+	/**
+	 * @return int - the updates waiting out the push coalescing window
+	 */
+	public int getPushQueueDepth() {
+		return PolicyServer.dispatcher.depth();
+	}
+
+	public long getConnections() {
+		return PolicyServer.connections.get();
+	}
+
+	public long getPeakConnections() {
+		return PolicyServer.peakConnections.get();
+	}
+}
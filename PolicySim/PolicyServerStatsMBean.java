@@ -0,0 +1,17 @@
+/**
+ * File: PolicyServerStatsMBean.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * The live metrics of the Policy Server or one of its read replicas, as seen
+ * over JMX under CloudDataSim:type=PolicyServer[,replica=<n>]. Rates are per
+ * second since the server started.
+ */
+
+public interface PolicyServerStatsMBean {
+	public int getCurrentVersion();
+	public long getRequests();
+	public double getRequestRate();
+	public int getPushQueueDepth();
+	public long getConnections();
+	public long getPeakConnections();
+}
@@ -0,0 +1,80 @@
+/**
+ * File: PolicySubscriber.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * A thread holding a CloudServer's policy update channel. It subscribes to
+ * the Policy Server once and then applies each POLICYUPDATE pushed over the
+ * channel, so updates do not need a new connection and worker each.
+ */
+
+import java.lang.Thread;
+import java.net.Socket;
+import java.net.SocketException;
+import java.io.*;
+
+public class PolicySubscriber extends Thread {
+	private CloudServer my_tm;
+	private Socket socket;
+	private ObjectInputStream input;
+
+	/**
+	 * Constructor that sets up the thread
+	 *
+	 * @param _my_tm - The CloudServer receiving the updates
+	 */
+	public PolicySubscriber(CloudServer _my_tm) {
+		my_tm = _my_tm;
+		setDaemon(true);
+	}
+
+	/**
+	 * Opens the channel and subscribes. Done before the thread is started so
+	 * that the server does not start taking transactions while its
+	 * subscription is still on the way.
+	 *
+	 * @return boolean - true if the subscription was sent
+	 */
+	public boolean subscribe() {
+		try {
+			socket = new Socket(my_tm.serverList.get(0).getAddress(),
+								my_tm.serverList.get(0).getPort());
+			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			input = new ObjectInputStream(socket.getInputStream());
+			Message msg = new Message("SUBSCRIBE " + my_tm.serverNumber);
+			msg.sender = my_tm.serverNumber;
+			output.writeObject(msg);
+			output.flush();
+			return true;
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			e.printStackTrace(System.err);
+			return false;
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				Message msg = (Message)input.readObject();
+				my_tm.hearPolicy(msg);
+				if (msg.theMessage.indexOf("POLICYUPDATE") != -1) {
+					my_tm.advancePolicy(Integer.parseInt(msg.theMessage.split(" ")[1]));
+				}
+			}
+		}
+		catch (EOFException eofe) {
+			// The Policy Server has shut down
+		}
+		catch (SocketException se) {
+			// The Policy Server has shut down
+		}
+		catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			e.printStackTrace(System.err);
+		}
+		if (CloudServer.verbose) {
+			System.out.println("Policy update channel closed");
+		}
+	}
+}
@@ -24,7 +24,7 @@ public class PolicyThread extends Thread {
 	 * @param _version
 	 * @param _address
 	 * @param _port
-	 * @param _latency
+	 * @param _latency - Latency of the update in us
 	 */
 	public PolicyThread(int _version, String _address, int _port, int _latency) {
 		version = _version;
@@ -37,30 +37,32 @@ public class PolicyThread extends Thread {
 	 * run() is basically the main method of a thread.
 	 */
 	public void run() {
+		FlightEvents.PolicyPush event = new FlightEvents.PolicyPush();
+		event.begin();
 		try {
 			final Socket socket = new Socket(address, port);
 			System.out.println("** Pushing Policy update to " + socket.getInetAddress() +
 							   ":" + socket.getPort() + " **");
 			
 			// Set up I/O streams with the server
-			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final DelayedOutput output = new DelayedOutput(new ObjectOutputStream(socket.getOutputStream()));
 			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
 			
 			Message msg = null;
 			Message response = null;
 			
-			if (latency > 0) {
-				// Sleep to simulate latency
-				try {
-					Thread.sleep(latency);
-				}
-				catch(Exception e) {
-					System.err.println("latencySleep() Error: " + e.getMessage());
-					e.printStackTrace(System.err);
-				}
-			}
 			msg = new Message("POLICYUPDATE " + version);
-			output.writeObject(msg);
+			msg.sender = PolicyServer.serverNumber;
+			msg.senderPolicy = version;
+			if (PolicyServer.timerWheel) {
+				// Deliver after the latency without sleeping first
+				output.send(msg, latency);
+			}
+			else {
+				// Wait to simulate latency
+				SimClock.sleepMicros(latency);
+				output.sendNow(msg);
+			}
 			response = (Message)input.readObject();
 			if (!response.theMessage.equals("ACK")) {
 				System.out.println("Error: Incorrect ACK from " + socket.getInetAddress() +
@@ -68,6 +70,10 @@ public class PolicyThread extends Thread {
 			}
 
 			socket.close();
+			event.version = version;
+			event.target = address + ":" + port;
+			event.latency = latency;
+			event.commit();
 		}
 		catch(ConnectException ce) {
 			System.out.println("** Connect Exception for " + address +
@@ -23,7 +23,6 @@ public class PolicyUpdater extends Thread {
 	}
 
 	public void run() {
-		PolicyThread thread = null;
 		int policyVersion = 0;
 		int latency = 0;
 		
@@ -42,25 +41,14 @@ public class PolicyUpdater extends Thread {
 					Thread.sleep(my_ps.policyUpdateMax);
 				}
 				// Update policy version
-				PolicyVersion.updatePolicy();
-				policyVersion = PolicyVersion.getCurrent();
+				policyVersion = PolicyVersion.updatePolicy("PERIODIC");
+				my_ps.replicate();
 				System.out.println("Policy version updated to v. " + policyVersion);
 				// Spread the word
 				for (int i = 1; i <= my_ps.maxServers; i++) {
-					if (my_ps.latencyMax > my_ps.latencyMin) { // Range of latency values
-						latency = my_ps.latencyMin + generator.nextInt(my_ps.latencyMax - my_ps.latencyMin);
-					}
-					else if (my_ps.latencyMax == 0) { // No artificial latency
-						latency = 0;
-					}
-					else { // Fixed latency value
-						latency = my_ps.latencyMax;
-					}
-					thread = new PolicyThread(policyVersion,
-											  my_ps.serverList.get(i).getAddress(),
-											  my_ps.serverList.get(i).getPort(),
-											  latency);
-					thread.start();
+					// Latency of the link to this server
+					latency = my_ps.topology.latency(my_ps.serverNumber, i, 0, generator);
+					my_ps.dispatcher.dispatch(i, policyVersion, latency);
 				}
 			}
 		}
@@ -3,18 +3,120 @@
  * @author: Tucker Trainor <tmt33@pitt.edu>
  *
  * Class to handle version tracking of current policy number, as needed by the
- * Policy Server.
+ * Policy Server. Versions only move forward, and the most recent ones are
+ * kept in a ring with the time and a description of each change so that a
+ * server can ask what changed since the version it holds. Neither lookups
+ * nor updates take a lock.
  */
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 public class PolicyVersion {
 	// the starting policy version
-	private static int currentPolicy = 1;
-	
-	public static void updatePolicy() {
-		currentPolicy++;
+	private static final AtomicInteger currentPolicy = new AtomicInteger(1);
+	// the most recent versions, version v is kept at v % length
+	private static AtomicReferenceArray<Change> history = new AtomicReferenceArray<Change>(64);
+
+	/**
+	 * Sets the number of past versions kept, before any update is made
+	 *
+	 * @param size - PHIST from the parameters file
+	 */
+	public static void setHistory(int size) {
+		history = new AtomicReferenceArray<Change>(Math.max(size, 1));
+	}
+
+	/**
+	 * Moves to the next policy version, unless the last possible version has
+	 * been reached
+	 *
+	 * @param delta - What changed, for POLICYSINCE
+	 *
+	 * @return int - the version made by this update
+	 */
+	public static int updatePolicy(String delta) {
+		int version;
+		do {
+			version = currentPolicy.get();
+			if (version == Integer.MAX_VALUE) {
+				return version;
+			}
+		} while (!currentPolicy.compareAndSet(version, version + 1));
+		version++;
+		history.set(version % history.length(), new Change(version, SimClock.micros(), delta));
+		return version;
+	}
+
+	/**
+	 * Moves to a version made elsewhere (on a replica, by the primary). An
+	 * older version is ignored.
+	 *
+	 * @param target - The version to move to
+	 * @param delta - What changed, for POLICYSINCE
+	 *
+	 * @return int - the current version afterwards
+	 */
+	public static int advanceTo(int target, String delta) {
+		int version;
+		do {
+			version = currentPolicy.get();
+			if (version >= target) {
+				return version;
+			}
+		} while (!currentPolicy.compareAndSet(version, target));
+		long now = SimClock.micros();
+		// Only the last history.length() versions can be kept anyway
+		for (int v = Math.max(version + 1, target - history.length() + 1); v <= target && v > 0; v++) {
+			history.set(v % history.length(), new Change(v, now, delta));
+		}
+		return target;
 	}
 
 	public static int getCurrent() {
-		return currentPolicy;
+		return currentPolicy.get();
+	}
+
+	/**
+	 * Lists the changes made after a version
+	 *
+	 * @param version - The version the asking server holds
+	 *
+	 * @return String - the current version followed by <version>@<us>:<delta>
+	 * for each later version, or by TRUNCATED if some of them are no longer
+	 * kept
+	 */
+	public static String since(int version) {
+		int current = currentPolicy.get();
+		StringBuilder changes = new StringBuilder();
+		for (int v = version + 1; v > 0 && v <= current; v++) {
+			Change change = history.get(v % history.length());
+			if (change != null && change.version > v) {
+				// Overwritten by a newer version
+				return current + " TRUNCATED";
+			}
+			else if (change == null || change.version < v) {
+				// Still being recorded, report up to the version before it
+				current = v - 1;
+				break;
+			}
+			changes.append(" " + change.version + "@" + change.time + ":" + change.delta);
+		}
+		return current + changes.toString();
+	}
+
+	/**
+	 * One past version
+	 */
+	static class Change {
+		public final int version;
+		public final long time; // us
+		public final String delta;
+
+		public Change(int _version, long _time, String _delta) {
+			version = _version;
+			time = _time;
+			delta = _delta;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+/**
+ * File: ProofRefresher.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Re-proves the queries of a CloudServer's active transactions in the
+ * background whenever the server's policy version moves forward (PREPROVE).
+ * A query proven this way carries the newer version in its QueryRecord, so
+ * the 2PV and RUNAUTHS rounds at commit find it ALREADY DONE instead of
+ * proving it on the critical path. A proof that fails is left for the commit
+ * phase, which fails it with the same version and proves it again only
+ * with a newer one.
+ */
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProofRefresher {
+	private final CloudServer my_tm;
+	private final ExecutorService pool;
+	// Workers with a refresh waiting to run; it proves with the version current
+	// when it runs, so one queued refresh covers any number of updates
+	private final Set<WorkerThread> queued =
+		Collections.newSetFromMap(new ConcurrentHashMap<WorkerThread, Boolean>());
+	private AtomicLong refreshes = new AtomicLong();
+	private AtomicLong proofs = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_tm - The CloudServer
+	 * @param threads - The number of threads proving in the background
+	 */
+	public ProofRefresher(CloudServer _my_tm, int threads) {
+		my_tm = _my_tm;
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int created = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				created++;
+				// Each thread tosses its own coins, so a run can be repeated
+				Prover thread = new Prover(r, new Random(my_tm.workerSeed + my_tm.serverNumber +
+														 1000L * created));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * A background proving thread with its own seeded Random
+	 */
+	static class Prover extends Thread {
+		private final Random generator;
+
+		public Prover(Runnable r, Random _generator) {
+			super(r, "ProofRefresher");
+			generator = _generator;
+		}
+	}
+
+	/**
+	 * Queues a refresh of every active transaction not already queued
+	 *
+	 * @param version - The server's new policy version
+	 */
+	public void policyAdvanced(int version) {
+		for (final WorkerThread worker : my_tm.activeWorkers()) {
+			if (queued.add(worker)) {
+				pool.execute(new Runnable() {
+					public void run() {
+						queued.remove(worker);
+						refresh(worker);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Proves each of a transaction's queries last proven with an older
+	 * version than the server's
+	 */
+	private void refresh(WorkerThread worker) {
+		int version = my_tm.getPolicy();
+		refreshes.incrementAndGet();
+		QueryRecord records[] = worker.queryRecords();
+		for (int j = 0; j < records.length; j++) {
+			if (records[j].getPolicy() < version) {
+				proofs.incrementAndGet();
+				if (!prove(worker.transactionNumber)) {
+					failures.incrementAndGet();
+					// The commit phase finds it stale; with this version it
+					// fails without a second toss, a newer one proves again
+					records[j].markFailed(version);
+					return;
+				}
+				records[j].raisePolicy(version);
+			}
+		}
+	}
+
+	/**
+	 * One local authorization, as WorkerThread.checkLocalAuth() but charged
+	 * to the server's CPU rather than to a transaction
+	 */
+	private boolean prove(int txn) {
+		Random generator = ((Prover)Thread.currentThread()).generator;
+		FlightEvents.ProofEvaluation event = new FlightEvents.ProofEvaluation();
+		event.begin();
+		my_tm.cpu.use(my_tm.authTime.sample(generator));
+		my_tm.stats.proof();
+		boolean success = true;
+		if (my_tm.localAuthSuccessRate < 1.0) {
+			success = generator.nextFloat() <= my_tm.localAuthSuccessRate;
+		}
+		event.txn = txn;
+		event.server = my_tm.serverNumber;
+		event.background = true;
+		event.success = success;
+		event.commit();
+		return success;
+	}
+
+	public void reset() {
+		refreshes.set(0);
+		proofs.set(0);
+		failures.set(0);
+	}
+
+	/**
+	 * @return String - PREPROVE_REFRESHES=<n> PREPROVE_PROOFS=<n>
+	 * PREPROVE_FAILS=<n>
+	 */
+	public String summary() {
+		return "PREPROVE_REFRESHES=" + refreshes.get() +
+			   " PREPROVE_PROOFS=" + proofs.get() +
+			   " PREPROVE_FAILS=" + failures.get();
+	}
+}
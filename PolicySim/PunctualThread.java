@@ -31,6 +31,9 @@ public class PunctualThread extends DeferredThread {
 	 */
 	public void run() {
 		generator = new Random(my_tm.workerSeed);
+		my_tm.stats.workerStarted();
+		txnEvent.begin();
+		startAccounting();
 		
 		PrintStream printStreamOriginal = System.out;
 		if (!my_tm.verbose) {
@@ -51,6 +54,7 @@ public class PunctualThread extends DeferredThread {
 			// Set up I/O streams with the calling thread
 			final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
 			final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+			final DelayedOutput reply = new DelayedOutput(output);
 			
 			Message msg = null;
 			Message resp = null;
@@ -60,6 +64,9 @@ public class PunctualThread extends DeferredThread {
 				String msgText = "ACK";
 				// Read and print message
 				msg = (Message)input.readObject();
+				peer = msg.sender; // Reply over the link we were called on
+				my_tm.stats.message(msg.theMessage);
+				my_tm.hearPolicy(msg);
 				System.out.println("[" + socket.getInetAddress() +
 								   ":" + socket.getPort() + "] " + msg.theMessage);
 				
@@ -77,8 +84,7 @@ public class PunctualThread extends DeferredThread {
 					if (my_tm.getPolicy() < update) {
 						my_tm.setPolicy(update);
 					}
-					latencySleep(); // Simulate latency
-					output.writeObject(new Message(msgText)); // send ACK
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency, send ACK
 					break;
 				}
 				else if (msg.theMessage.indexOf("PARAMETERS") != -1) { // Configuration change
@@ -91,10 +97,30 @@ public class PunctualThread extends DeferredThread {
 					System.out.println("Proof: " + my_tm.proof);
 					System.out.println("Validation mode: " + my_tm.validationMode);
 					System.out.println("Policy push mode: " + my_tm.policyPush);
+					my_tm.resetServiceStats(); // A new run starts
 					// No artificial latency needed, send ACK
-					output.writeObject(new Message(msgText));
+					reply.sendNow(new Message(msgText));
 					break;
 				}
+				else if (msg.theMessage.equals("SERVICESTATS")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.serviceSummary()));
+					break;
+				}
+				else if (msg.theMessage.equals("TRACEDUMP")) { // Robot collecting spans
+					reply.sendNow(new Message(Tracer.dump()));
+					break;
+				}
+				else if (msg.theMessage.equals("TXNSERVICE")) { // Robot collecting results
+					reply.sendNow(new Message(my_tm.transactionServiceSummary()));
+					break;
+				}
+				else if (msg.theMessage.startsWith("BATCH ")) { // Batched commit requests
+					// Answer each request with the worker holding its transaction
+					msgText = my_tm.batcher.answerBatch(msg.theMessage);
+					reply.setPersistent(); // Don't keep every batch answered
+					sendWithLatency(reply, new Message(msgText), peer); // Simulate latency
+					continue; // Connection stays open for the next batch
+				}
 				
 				// Separate queries
 				String queryGroup[] = msg.theMessage.split(",");
@@ -146,7 +172,7 @@ public class PunctualThread extends DeferredThread {
 							System.out.println("Pass READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to READ of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
@@ -197,65 +223,22 @@ public class PunctualThread extends DeferredThread {
 							System.out.println("Pass WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2]);
-							msgText = passQuery(Integer.parseInt(query[2]), queryGroup[i]);
+							msgText = timedPassQuery(Integer.parseInt(query[2]), queryGroup[i]);
 							System.out.println("Response to WRITE of transaction " + query[1] +
 											   " sequence " + query[3] +
 											   " to server " + query[2] +
 											   ": " + msgText);
 						}
 					}
-					else if (query[0].equals("RUNAUTHS")) {
-						// Run any necessary re-authorizations on queries
-						int version = Integer.parseInt(query[1]);
-						System.out.println("Running auth. on transaction " +
-										   queryLog.get(0).getTransaction() + 
-										   " queries using policy version " +
-										   version);
-						msgText = "TRUE";
-						for (int j = 0; j < queryLog.size(); j++) {
-							// If policy used for proof during transaction differs
-							if (queryLog.get(j).getPolicy() != version) {
-								if (!checkLocalAuth()) {
-									System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
-													   " for txn " + queryLog.get(j).getTransaction() +
-													   ", seq " + queryLog.get(j).getSequence() +
-													   " with policy v. " + version +
-													   " (was v. " + queryLog.get(j).getPolicy() +
-													   "): FAIL");
-									msgText = "FALSE";
-									break;
-								}
-								else {
-									System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
-													   " for txn " + queryLog.get(j).getTransaction() +
-													   ", seq " + queryLog.get(j).getSequence() +
-													   " with policy v. " + version +
-													   " (was v. " + queryLog.get(j).getPolicy() +
-													   "): PASS");
-									queryLog.get(j).setPolicy(version); // Update policy in log
-								}
-							}
-							else { // Output message of same policy
-								System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
-												   " for txn " + queryLog.get(j).getTransaction() +
-												   ", seq " + queryLog.get(j).getSequence() +
-												   " with policy v. " + version +
-												   ": ALREADY DONE");
-							}
-						}
-					}
-					else if (query[0].equals("PTC")) { // Prepare-to-Commit
-						if (my_tm.validationMode >= 0 && my_tm.validationMode <= 2) {
-							msgText = prepareToCommit(0); // No global version
-						}
-						else { // Uses a global version, pass to method
-							msgText = prepareToCommit(Integer.parseInt(query[1]));
-						}
+					else if (query[0].equals("RUNAUTHS") || query[0].equals("PTC")) {
+						// Commit-phase request from the coordinator
+						msgText = answerCommitRequest(query);
 					}
 					else if (query[0].equals("C")) { // COMMIT
 						System.out.println("COMMIT phase - transaction " + query[1]);
 						// Begin 2PC/2PV methods
 						msgText = coordinatorCommit();
+						txnEvent.status = msgText;
 						System.out.println("Status of 2PC/2PV of transaction " + query[1] +
 										   ": " + msgText);
 					}
@@ -266,16 +249,23 @@ public class PunctualThread extends DeferredThread {
 						Thread.sleep(Integer.parseInt(query[1]));
 					}
 					else if (query[0].toUpperCase().equals("EXIT")) { // end of transaction
-						// send exit flag to RobotThread
+						// send exit flag to RobotThread, with KEY=value measurements
 						msgText = "FIN";
 						if (!my_tm.threadSleep) { // append total sleep time to message
-							msgText += " " + totalSleepTime;
+							msgText += " SLEEP=" + totalSleepTime;
+						}
+						msgText += " QWAIT=" + queueWait;
+						msgText += " PH=" + phaseSummary();
+						if (my_tm.lease != null) {
+							msgText += " STALE=" + policyStaleness;
 						}
 					}
 				}
-				latencySleep(); // Simulate latency to RobotThread
+				if (peer == Topology.ROBOT) {
+					my_tm.stats.finished(msgText);
+				}
 				// ACK completion of this query group to RobotThread
-				output.writeObject(new Message(msgText));
+				sendWithLatency(reply, new Message(msgText), peer); // Simulate latency to RobotThread
 			}
 			// Close any SocketGroup connection
 			if (sockList.size() > 0) {
@@ -283,21 +273,23 @@ public class PunctualThread extends DeferredThread {
 				for (Enumeration<Integer> socketList = sockList.keys(); socketList.hasMoreElements();) {
 					msg = new Message("DONE");
 					serverNum = socketList.nextElement();
-					latencySleep(); // Simulate latency
-					sockList.get(serverNum).output.writeObject(msg);
-					sockList.get(serverNum).socket.close();
+					sendWithLatency(sockList.get(serverNum).delayed, msg, serverNum); // Simulate latency
+					sockList.get(serverNum).delayed.close(sockList.get(serverNum).socket);
 				}
 			}
 			
 			// Close and cleanup
 			System.out.println("** Closing connection with " + socket.getInetAddress() +
 							   ":" + socket.getPort() + " **");
-			socket.close();
+			reply.close(socket); // Once any reply in flight has been delivered
 		}
 		catch(Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace(System.err);
 		}
+		endRound();
+		releaseTransaction();
+		my_tm.stats.workerFinished();
 		System.out.flush();
 		System.setOut(printStreamOriginal);
 	}
@@ -350,9 +342,9 @@ public class PunctualThread extends DeferredThread {
 			
 			// Send query
 			msg = new Message(query);
-			latencySleep(); // Simulate latency to other server
-			sockList.get(otherServer).output.writeObject(msg);
+			sendWithLatency(sockList.get(otherServer).delayed, msg, otherServer); // Simulate latency to other server
 			msg = (Message)sockList.get(otherServer).input.readObject();
+			my_tm.hearPolicy(msg);
 			System.out.println("Server " + otherServer +
 							   " says: " + msg.theMessage +
 							   " for passed query " + query);
@@ -371,6 +363,67 @@ public class PunctualThread extends DeferredThread {
 		return "FAIL";
 	}
 
+	/**
+	 * Answers a commit-phase request from the coordinator, whether it arrived
+	 * on this worker's socket or in a batch from the coordinator's server.
+	 *
+	 * @param query - the request split on spaces, e.g. PTC <version>
+	 * @return String - the response to the coordinator
+	 */
+	public String answerCommitRequest(String query[]) {
+		String msgText = "ACK";
+		if (query[0].equals("RUNAUTHS")) {
+			// Run any necessary re-authorizations on queries
+			int version = Integer.parseInt(query[1]);
+			System.out.println("Running auth. on transaction " +
+							   queryLog.get(0).getTransaction() + 
+							   " queries using policy version " +
+							   version);
+			msgText = "TRUE";
+			for (int j = 0; j < queryLog.size(); j++) {
+				// If policy used for proof during transaction differs
+				if (queryLog.get(j).getPolicy() != version) {
+					if (!checkLocalAuth(queryLog.get(j), version)) {
+						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
+										   " for txn " + queryLog.get(j).getTransaction() +
+										   ", seq " + queryLog.get(j).getSequence() +
+										   " with policy v. " + version +
+										   " (was v. " + queryLog.get(j).getPolicy() +
+										   "): FAIL");
+						msgText = "FALSE";
+						break;
+					}
+					else {
+						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
+										   " for txn " + queryLog.get(j).getTransaction() +
+										   ", seq " + queryLog.get(j).getSequence() +
+										   " with policy v. " + version +
+										   " (was v. " + queryLog.get(j).getPolicy() +
+										   "): PASS");
+						queryLog.get(j).setPolicy(version); // Update policy in log
+					}
+				}
+				else { // Output message of same policy
+					System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
+									   " for txn " + queryLog.get(j).getTransaction() +
+									   ", seq " + queryLog.get(j).getSequence() +
+									   " with policy v. " + version +
+									   ": ALREADY DONE");
+					my_tm.stats.proofSkipped();
+				}
+			}
+		}
+		else if (query[0].equals("PTC")) { // Prepare-to-Commit
+			if (my_tm.validationMode >= 0 && my_tm.validationMode <= 2) {
+				msgText = prepareToCommit(0); // No global version
+			}
+			else { // Uses a global version, pass to method
+				msgText = prepareToCommit(Integer.parseInt(query[1]));
+			}
+		}
+		return msgText;
+	}
+
 	/**
 	 * The prepare-to-commit method that is invoked when participating servers
 	 * received the PTC call from the coordinator
@@ -411,7 +464,7 @@ public class PunctualThread extends DeferredThread {
 									   transactionPolicyVersion);
 					for (int j = 0; j < queryLog.size(); j++) {
 						if (queryLog.get(j).getPolicy() != globalVersion) {
-							if (!checkLocalAuth()) {
+							if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 								System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 												   " for transaction " + queryLog.get(j).getTransaction() +
 												   ", sequence " + queryLog.get(j).getSequence() +
@@ -434,6 +487,7 @@ public class PunctualThread extends DeferredThread {
 											   ", seq " + queryLog.get(j).getSequence() +
 											   " with policy v. " + globalVersion +
 											   ": ALREADY DONE");
+							my_tm.stats.proofSkipped();
 						}
 					}
 					return "YES TRUE"; // (integrity and authorizations pass)
@@ -463,7 +517,7 @@ public class PunctualThread extends DeferredThread {
 									   " queries using policy version " +
 									   globalVersion);
 					for (int j = 0; j < queryLog.size(); j++) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for txn " + queryLog.get(j).getTransaction() +
 											   ", seq " + queryLog.get(j).getSequence() +
@@ -497,6 +551,7 @@ public class PunctualThread extends DeferredThread {
 										   ", seq " + queryLog.get(j).getSequence() +
 										   " with policy v. " + globalVersion +
 										   ": ALREADY DONE");
+						my_tm.stats.proofSkipped();
 					}
 					return "YES TRUE"; // (integrity and authorizations pass)
 				}
@@ -531,13 +586,12 @@ public class PunctualThread extends DeferredThread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("PTC");
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "PTC");
 					}
 					catch (Exception e) {
 						System.err.println("PTC Send Error: " + e.getMessage());
@@ -555,7 +609,7 @@ public class PunctualThread extends DeferredThread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response, add policy version to ArrayList
 						if (msg.theMessage.indexOf("YES") != -1) {
 							if (my_tm.validationMode != 0) { // Not 2PC only
@@ -627,7 +681,7 @@ public class PunctualThread extends DeferredThread {
 		
 		// Have coordinator's server call the policy server and retrieve the
 		// current global master policy version
-		int globalVersion = my_tm.callPolicyServer();
+		int globalVersion = globalPolicy();
 		if (my_tm.policyPush == 1) {
 			globalVersion++;
 		}
@@ -645,13 +699,12 @@ public class PunctualThread extends DeferredThread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("PTC " + globalVersion);
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "PTC " + globalVersion);
 					}
 					catch (Exception e) {
 						System.err.println("PTC Send Error: " + e.getMessage());
@@ -667,7 +720,7 @@ public class PunctualThread extends DeferredThread {
 			if (integrityOkay) {
 				for (int j = 0; j < queryLog.size(); j++) {
 					if (queryLog.get(j).getPolicy() != globalVersion) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for transaction " + queryLog.get(j).getTransaction() +
 											   ", sequence " + queryLog.get(j).getSequence() +
@@ -690,6 +743,7 @@ public class PunctualThread extends DeferredThread {
 										   ", seq " + queryLog.get(j).getSequence() +
 										   " with policy v. " + globalVersion +
 										   ": ALREADY DONE");
+						my_tm.stats.proofSkipped();
 					}
 				}
 			}
@@ -697,7 +751,7 @@ public class PunctualThread extends DeferredThread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// mode 3: if all participants are using global, they
 						// run auths and return YES/NO, TRUE/FALSE
 						// if any are not using global, ABORT
@@ -739,7 +793,7 @@ public class PunctualThread extends DeferredThread {
 			// Run auths if necessary using global version
 			for (int j = 0; j < queryLog.size(); j++) {
 				if (queryLog.get(j).getPolicy() != globalVersion) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -762,6 +816,7 @@ public class PunctualThread extends DeferredThread {
 									   ", seq " + queryLog.get(j).getSequence() +
 									   " with policy v. " + globalVersion +
 									   ": ALREADY DONE");
+					my_tm.stats.proofSkipped();
 				}
 			}
 		}
@@ -786,13 +841,12 @@ public class PunctualThread extends DeferredThread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("RUNAUTHS " + version);
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "RUNAUTHS " + version);
 					}
 					catch (Exception e) {
 						System.err.println("RUNAUTHS Send Error: " + e.getMessage());
@@ -807,7 +861,7 @@ public class PunctualThread extends DeferredThread {
 							   version);
 			for (int j = 0; j < queryLog.size(); j++) {
 				if (queryLog.get(j).getPolicy() != version) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), version)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -829,13 +883,14 @@ public class PunctualThread extends DeferredThread {
 									   ", seq " + queryLog.get(j).getSequence() +
 									   " with policy v. " + version +
 									   ": ALREADY DONE");
+					my_tm.stats.proofSkipped();
 				}
 			}
 			// Receive responses
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response
 						if (msg.theMessage.equals("FALSE")) {
 							authorizationsOkay = false;
@@ -858,7 +913,7 @@ public class PunctualThread extends DeferredThread {
 							   version);
 			for (int j = 0; j < queryLog.size(); j++) {
 				if (queryLog.get(j).getPolicy() != version) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), version)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -880,6 +935,7 @@ public class PunctualThread extends DeferredThread {
 									   ", seq " + queryLog.get(j).getSequence() +
 									   " with policy v. " + version +
 									   ": ALREADY DONE");
+					my_tm.stats.proofSkipped();
 				}
 			}
 		}
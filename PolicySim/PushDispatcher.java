@@ -0,0 +1,118 @@
+/**
+ * File: PushDispatcher.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Sends policy updates from the Policy Server to the CloudServers. An update
+ * for a server waits up to the push window, and any newer version for the
+ * same server made in that time replaces it, so a burst of POLICYPUSH
+ * requests reaches each server as a single update of the latest version.
+ */
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PushDispatcher {
+	private final PolicyServer my_ps;
+	private final long window; // us, 0 to send each update at once
+	private Hashtable<Integer, Pending> pending = new Hashtable<Integer, Pending>();
+	private AtomicLong requested = new AtomicLong();
+	private AtomicLong sent = new AtomicLong();
+	private AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _my_ps - The Policy Server
+	 * @param _window - The push window in ms
+	 */
+	public PushDispatcher(PolicyServer _my_ps, int _window) {
+		my_ps = _my_ps;
+		window = _window * 1000L;
+	}
+
+	/**
+	 * Queues an update for a server, or folds it into the one already waiting
+	 *
+	 * @param server - The destination server number
+	 * @param version - The new policy version
+	 * @param latency - Latency of the link to the server in us
+	 */
+	public void dispatch(final int server, int version, int latency) {
+		requested.incrementAndGet();
+		if (window <= 0) {
+			send(server, version, latency);
+			return;
+		}
+		synchronized (this) {
+			Pending waiting = pending.get(server);
+			if (waiting != null) {
+				// One is already waiting, it will carry the newer version
+				if (version > waiting.version) {
+					waiting.version = version;
+				}
+				coalesced.incrementAndGet();
+				return;
+			}
+			pending.put(server, new Pending(version, latency));
+		}
+		TimerWheel.getShared().schedule(window, new Runnable() {
+			public void run() {
+				flush(server);
+			}
+		});
+	}
+
+	private void flush(int server) {
+		Pending waiting;
+		synchronized (this) {
+			waiting = pending.remove(server);
+		}
+		if (waiting != null) {
+			send(server, waiting.version, waiting.latency);
+		}
+	}
+
+	private void send(int server, int version, int latency) {
+		sent.incrementAndGet();
+		if (!my_ps.publisher.publish(server, version, latency)) {
+			// Not subscribed, push over a new connection
+			PolicyThread thread = new PolicyThread(version,
+												   my_ps.serverList.get(server).getAddress(),
+												   my_ps.serverList.get(server).getPort(),
+												   latency);
+			thread.start();
+		}
+	}
+
+	/**
+	 * @return int - the updates waiting out the window
+	 */
+	public synchronized int depth() {
+		return pending.size();
+	}
+
+	/**
+	 * @return String - e.g. SERVER=0 PUSHES=<n> PUSHES_SENT=<n>
+	 * PUSHES_COALESCED=<n> PCW=<ms>
+	 */
+	public String summary() {
+		return "SERVER=" + my_ps.serverNumber +
+			   " PUSHES=" + requested.get() +
+			   " PUSHES_SENT=" + sent.get() +
+			   " PUSHES_COALESCED=" + coalesced.get() +
+			   " PCW=" + (window / 1000);
+	}
+
+	/**
+	 * The update waiting for a server
+	 */
+	class Pending {
+		public int version;
+		public final int latency;
+
+		public Pending(int _version, int _latency) {
+			version = _version;
+			latency = _latency;
+		}
+	}
+}
@@ -10,7 +10,8 @@ public class QueryRecord {
 	private int transactionNumber;
 	private int serverNumber;
 	private int sequenceNumber;
-	private int policyVersion;
+	private volatile int policyVersion; // Also raised by a ProofRefresher
+	private volatile int failedPolicy = -1; // Version a ProofRefresher failed it with
 	
 	public QueryRecord (String query, int trans, int server, int seq, int policy) {
 		queryType = query;
@@ -40,10 +41,40 @@ public class QueryRecord {
 		policyVersion = policy;
 	}
 	
+	/**
+	 * Records a proof with a newer version, made outside the transaction
+	 *
+	 * @param policy - The version the query was proven with
+	 */
+	public synchronized void raisePolicy(int policy) {
+		if (policyVersion < policy) {
+			policyVersion = policy;
+		}
+	}
+	
 	public int getPolicy() {
 		return policyVersion;
 	}
 	
+	/**
+	 * Records a proof that failed outside the transaction, so that the
+	 * commit phase keeps its outcome instead of proving it again
+	 *
+	 * @param policy - The version the query failed with
+	 */
+	public void markFailed(int policy) {
+		failedPolicy = policy;
+	}
+	
+	/**
+	 * @param policy - The version the commit phase proves with
+	 *
+	 * @return boolean - true if a proof with this version already failed
+	 */
+	public boolean failedWith(int policy) {
+		return failedPolicy == policy;
+	}
+	
 	public String toString() {
 		return queryType + " " + transactionNumber + " " + serverNumber + " " + sequenceNumber + " " + policyVersion;
 	}
@@ -0,0 +1,106 @@
+/**
+ * File: ResourceAccounting.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Sums the CPU time and heap allocation of a CloudServer's workers over
+ * each one's handling of a transaction (ACCOUNTING), from the JVM's own
+ * per-thread counters, separately for coordinators and participants. Work
+ * done off the worker threads, e.g. by the CommitBatcher or ProofRefresher,
+ * is not counted, nor is the spinning at the end of each simulated wait.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResourceAccounting {
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static boolean allocation = false; // Whether this JVM counts allocation
+	private AtomicLong coordinators = new AtomicLong();
+	private AtomicLong coordinatorCpu = new AtomicLong(); // us
+	private AtomicLong coordinatorAlloc = new AtomicLong(); // bytes
+	private AtomicLong participants = new AtomicLong();
+	private AtomicLong participantCpu = new AtomicLong();
+	private AtomicLong participantAlloc = new AtomicLong();
+
+	/**
+	 * Turns on the JVM's per-thread counters
+	 *
+	 * @return boolean - false if this JVM cannot measure thread CPU time
+	 */
+	public static boolean enable() {
+		if (!threads.isCurrentThreadCpuTimeSupported()) {
+			return false;
+		}
+		threads.setThreadCpuTimeEnabled(true);
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+			if (sunThreads.isThreadAllocatedMemorySupported()) {
+				sunThreads.setThreadAllocatedMemoryEnabled(true);
+				allocation = true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return long - CPU time used by the current thread so far in us, less
+	 * the time it spun in SimClock.sleepMicros() simulating waits
+	 */
+	public static long cpuTime() {
+		return threads.getCurrentThreadCpuTime() / 1000 - SimClock.spinMicros();
+	}
+
+	/**
+	 * @return long - bytes allocated by the current thread so far, 0 if not
+	 * measured
+	 */
+	public static long allocatedBytes() {
+		if (!allocation) {
+			return 0;
+		}
+		return ((com.sun.management.ThreadMXBean)threads).getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * @param coordinator - Whether the worker coordinated the transaction
+	 * @param cpu - CPU time the worker used in us
+	 * @param alloc - Bytes the worker allocated
+	 */
+	public void add(boolean coordinator, long cpu, long alloc) {
+		// A spin the thread was descheduled in takes out more than it used
+		cpu = Math.max(cpu, 0);
+		if (coordinator) {
+			coordinators.incrementAndGet();
+			coordinatorCpu.addAndGet(cpu);
+			coordinatorAlloc.addAndGet(alloc);
+		}
+		else {
+			participants.incrementAndGet();
+			participantCpu.addAndGet(cpu);
+			participantAlloc.addAndGet(alloc);
+		}
+	}
+
+	public void reset() {
+		coordinators.set(0);
+		coordinatorCpu.set(0);
+		coordinatorAlloc.set(0);
+		participants.set(0);
+		participantCpu.set(0);
+		participantAlloc.set(0);
+	}
+
+	/**
+	 * @return String - ACCT_COORD=<workers> ACCT_COORD_CPU=<us>
+	 * ACCT_COORD_ALLOC=<bytes> and the same for ACCT_PART
+	 */
+	public String summary() {
+		return "ACCT_COORD=" + coordinators.get() +
+			   " ACCT_COORD_CPU=" + coordinatorCpu.get() +
+			   " ACCT_COORD_ALLOC=" + coordinatorAlloc.get() +
+			   " ACCT_PART=" + participants.get() +
+			   " ACCT_PART_CPU=" + participantCpu.get() +
+			   " ACCT_PART_ALLOC=" + participantAlloc.get();
+	}
+}
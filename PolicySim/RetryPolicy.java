@@ -0,0 +1,68 @@
+/**
+ * File: RetryPolicy.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * When the Robot runs an aborted transaction again, as a client would: up to
+ * a number of attempts (RETRY), only for the chosen abort reasons (RON), and
+ * after an exponential backoff with full jitter, i.e. a random wait of up to
+ * RBASE * 2^(retry - 1) ms, capped at RMAX ms. The new attempt is validated
+ * against whatever policy version is current by then.
+ */
+
+import java.util.HashSet;
+import java.util.Random;
+
+public class RetryPolicy {
+	private final int maxAttempts;
+	private final int backoffBase; // ms
+	private final int backoffMax; // ms
+	private final HashSet<AbortReason> reasons = new HashSet<AbortReason>(); // Empty for all
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _maxAttempts - Attempts per transaction, 1 for no retries
+	 * @param _backoffBase - Backoff before the first retry in ms, at most
+	 * @param _backoffMax - Longest backoff in ms
+	 * @param _reasons - Comma-separated abort reasons to retry, or ALL
+	 */
+	public RetryPolicy(int _maxAttempts, int _backoffBase, int _backoffMax, String _reasons) {
+		maxAttempts = _maxAttempts;
+		backoffBase = _backoffBase;
+		backoffMax = _backoffMax;
+		if (!_reasons.equalsIgnoreCase("ALL")) {
+			String reasonSplit[] = _reasons.split(",");
+			for (int i = 0; i < reasonSplit.length; i++) {
+				reasons.add(AbortReason.valueOf(reasonSplit[i].trim().toUpperCase()));
+			}
+		}
+	}
+
+	/**
+	 * @param reason - Why the attempt aborted
+	 * @param attempt - The attempt that aborted, from 1
+	 *
+	 * @return boolean - true if the transaction should be run again
+	 */
+	public boolean shouldRetry(AbortReason reason, int attempt) {
+		return attempt < maxAttempts && (reasons.isEmpty() || reasons.contains(reason));
+	}
+
+	/**
+	 * @param attempt - The attempt that aborted, from 1
+	 * @param generator - Random for the jitter
+	 *
+	 * @return long - the time to wait before the next attempt in us
+	 */
+	public long backoff(int attempt, Random generator) {
+		// Doubling from the base, without overflowing on long retry chains
+		long ceiling = backoffMax;
+		if (attempt <= 30) {
+			ceiling = Math.min(backoffMax, (long)backoffBase << (attempt - 1));
+		}
+		if (ceiling <= 0) {
+			return 0;
+		}
+		return (long)(generator.nextDouble() * ceiling * 1000);
+	}
+}
@@ -29,14 +29,56 @@ public class Robot {
 	static int latencyMin;
 	static int latencyMax;
 	static boolean threadSleep;
+	static boolean timerWheel = false;
+	static boolean policySubscribe = true;
+	static boolean singleFlight = true;
+	static int singleFlightWindow = 0;
+	static int policyLease = 0;
+	static int replicaCount = 0;
+	static boolean gossip = false;
+	static int preprove = 0;
+	static String convergeHint = "NONE";
+	static boolean trace = false;
+	static boolean accounting = false;
+	static int sampleInterval = 0; // ms between samples, 0 for none
+	static int retryAttempts = 1; // Attempts per transaction, 1 for no retries
+	static int retryBase = 10; // ms
+	static int retryMax = 1000; // ms
+	static String retryOn = "POLICY_INEQUALITY"; // Abort reasons to retry, or ALL
+	static RetryPolicy retryPolicy;
+	static int warmupTransactions = 0; // Left out of the statistics
+	static int warmupDuration = 0; // ms from the first start left out
+	static int windowDuration = 0; // ms measured, 0 for the rest of the run
+	static int cooldownDuration = 0; // ms before the end of the run left out
+	static long windowStart; // us, the measurement window
+	static long windowEnd;
+	static double ciTarget = 0.0; // Half-width to stop at, 0 to run all MT
+	static double ciLevel = 0.95;
+	static ConvergenceMonitor monitor = null;
+	static int plannedTransactions; // MT, when stopping early
+	static ArrayList<ServerID> replicaList = new ArrayList<ServerID>();
+	static String topologyFile = null;
+	static Topology topology; // Latency of each link, from TOPO or LMIN/LMAX
 	static float integrityCheckSuccessRate;
 	static float localAuthSuccessRate;
 	static float globalAuthSuccessRate;
 	static int policyUpdateMin;
 	static int policyUpdateMax;
+	static int pushWindow = 0;
 	static long randomSeed1;
 	static long randomSeed2;
 	static long randomSeed3;
+	static boolean commitBatch;
+	static int commitBatchWindow;
+	static int commitBatchSize;
+	static String serviceRead = "uniform 1000 3000";
+	static String serviceWrite = "uniform 12000 20000";
+	static String serviceAuth = "uniform 1000 3000";
+	static String serviceIntegrity = "uniform 1000 3000";
+	static int diskSlots = 0;
+	static int cpuSlots = 0;
+	static ArrayList<String> serverStats = new ArrayList<String>();
+	static ArrayList<String> traceEvents = new ArrayList<String>(); // From each Cloud Server
 	static Random generator;
 	static ExecutorService execSvc;
 	static boolean verbose = false;
@@ -69,12 +111,52 @@ public class Robot {
 		// Load the parameters for this simulation
 		if (loadParameters("parameters.txt")) {
 			System.out.println("Parameters file read successfully.");
+			Tracer.setProcess(maxServers + 1, "Robot");
 		}
 		else {
 			System.err.println("Error loading parameters file. Exiting.");
 			outputErrorLog(serverList, "Error loading parameters file.");
 			System.exit(-1);
 		}
+		try {
+			retryPolicy = new RetryPolicy(retryAttempts, retryBase, retryMax, retryOn);
+		}
+		catch (IllegalArgumentException iae) {
+			System.err.println("Unknown abort reason in RON " + retryOn + ". Exiting.");
+			outputErrorLog(serverList, "Unknown abort reason in RON " + retryOn + ".");
+			System.exit(-1);
+		}
+		if (ciTarget > 0) {
+			try {
+				monitor = new ConvergenceMonitor(ciTarget, ciLevel, warmupTransactions, warmupDuration,
+												maxDegree);
+				RobotThread.monitor = monitor;
+			}
+			catch (IllegalArgumentException iae) {
+				System.err.println(iae.getMessage() + " in CIL. Exiting.");
+				outputErrorLog(serverList, iae.getMessage() + " in CIL.");
+				System.exit(-1);
+			}
+		}
+		// Load the Policy Server read replicas, if any
+		if (replicaCount > 0) {
+			replicaList = loadConfig("replicaConfig.txt");
+			if (replicaList == null || replicaList.size() < replicaCount) {
+				System.err.println("Error loading replica configuration file. Exiting.");
+				outputErrorLog(serverList, "Error loading replica configuration file.");
+				System.exit(-1);
+			}
+		}
+		// Load the network topology, if any
+		try {
+			topology = Topology.load(topologyFile, latencyMin, latencyMax);
+		}
+		catch (Exception e) {
+			System.err.println("Error loading topology file. Exiting.");
+			e.printStackTrace(System.err);
+			outputErrorLog(serverList, "Error loading topology file.");
+			System.exit(-1);
+		}
 
 		// Error checking for arguments (0 or 5 args)
 		if (args.length != 0 && args.length != 5) {
@@ -198,13 +280,34 @@ public class Robot {
 			TransactionLog.entry.add(tData);
 		}
 		
+		if (sampleInterval > 0) {
+			new Sampler("Samples_Robot.csv", "active,committed,aborted",
+						sampleInterval, new Sampler.Source() {
+				public String sample() {
+					return RobotThread.active.get() + "," + RobotThread.committed.get() + "," +
+						   RobotThread.aborted.get();
+				}
+			}).start();
+		}
+		
 		// Communicate with CloudServer through pool of RobotThreads
 		int coordinator = 0;
 		String txn;
 		String txnSplit[];
 		execSvc = Executors.newFixedThreadPool(maxDegree);
+		RobotThread.attemptStride = plannedTransactions;
 			
+		int started = 0;
 		for (int i = 1; i <= maxTransactions; i++) {
+			// Stop starting transactions once the statistics are precise enough
+			try {
+				if (monitor != null && !monitor.admit()) {
+					break;
+				}
+			}
+			catch (InterruptedException e) {
+				break;
+			}
 			txn = TransactionLog.entry.get(i).getTxn();
 			txnSplit = txn.split(" ");
 			if (pickRandomServer && txnSplit[0].equals("RSERV")) {
@@ -218,11 +321,13 @@ public class Robot {
 											 txn,
 											 serverList.get(coordinator).getAddress(),
 											 serverList.get(coordinator).getPort(),
-											 latencyMin,
-											 latencyMax,
+											 topology,
 											 threadSleep,
+											 timerWheel,
 											 verbose,
-											 randomSeed2) );
+											 randomSeed2,
+											 retryPolicy) );
+			started++;
 		}
 		
 		execSvc.shutdown();
@@ -237,6 +342,15 @@ public class Robot {
 		catch (InterruptedException e) {
 			e.printStackTrace();
 		}
+		// The log covers the transactions that ran
+		maxTransactions = started;
+		
+		// Collect the disk and CPU use of each Cloud Server
+		collectServiceStats(serverList);
+		collectTransactionService(serverList);
+		if (trace) {
+			collectTraces(serverList);
+		}
 		
 		// Shut down Policy Server, Cloud Servers
 		for (int i = 0; i <= maxServers; i++) {
@@ -263,6 +377,8 @@ public class Robot {
 			}
 		}
 		
+		shutdownReplicas();
+		
 		// Record output log
 		if (outputLog()) {
 			System.out.println("Log created.");
@@ -313,6 +429,7 @@ public class Robot {
 					}
 					else if (tuple[0].equals("MT")) {
 						maxTransactions = Integer.parseInt(tuple[1]);
+						plannedTransactions = maxTransactions;
 					}
 					else if (tuple[0].equals("OPMIN")) {
 						minOperations = Integer.parseInt(tuple[1]);
@@ -335,6 +452,76 @@ public class Robot {
 					else if (tuple[0].equals("SLEEP")) {
 						threadSleep = Boolean.parseBoolean(tuple[1]);
 					}
+					else if (tuple[0].equals("TW")) {
+						timerWheel = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SUB")) {
+						policySubscribe = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SF")) {
+						singleFlight = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("SFW")) {
+						singleFlightWindow = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("GOSSIP")) {
+						gossip = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("HINT")) {
+						convergeHint = tuple[1].toUpperCase();
+					}
+					else if (tuple[0].equals("WUT")) {
+						warmupTransactions = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("WUD")) {
+						warmupDuration = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("MWD")) {
+						windowDuration = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("CDD")) {
+						cooldownDuration = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("CIT")) {
+						ciTarget = Double.parseDouble(tuple[1]);
+					}
+					else if (tuple[0].equals("CIL")) {
+						ciLevel = Double.parseDouble(tuple[1]);
+					}
+					else if (tuple[0].equals("RETRY")) {
+						retryAttempts = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("RBASE")) {
+						retryBase = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("RMAX")) {
+						retryMax = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("RON")) {
+						retryOn = tuple[1];
+					}
+					else if (tuple[0].equals("SAMPLE")) {
+						sampleInterval = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("ACCOUNTING")) {
+						accounting = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("TRACE")) {
+						trace = Boolean.parseBoolean(tuple[1]);
+						Tracer.enabled = trace;
+					}
+					else if (tuple[0].equals("PREPROVE")) {
+						preprove = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("REPLICA")) {
+						replicaCount = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("LEASE")) {
+						policyLease = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("TOPO")) {
+						topologyFile = tuple[1];
+					}
 					else if (tuple[0].equals("ICSR")) {
 						integrityCheckSuccessRate = Float.parseFloat(tuple[1]);
 					}
@@ -344,6 +531,9 @@ public class Robot {
 					else if (tuple[0].equals("GASR")) {
 						globalAuthSuccessRate = Float.parseFloat(tuple[1]);
 					}
+					else if (tuple[0].equals("PCW")) {
+						pushWindow = Integer.parseInt(tuple[1]);
+					}
 					else if (tuple[0].equals("PMIN")) {
 						policyUpdateMin = Integer.parseInt(tuple[1]);
 					}
@@ -359,6 +549,33 @@ public class Robot {
 					else if (tuple[0].equals("RS3")) {
 						randomSeed3 = Long.parseLong(tuple[1]);
 					}
+					else if (tuple[0].equals("CB")) {
+						commitBatch = Boolean.parseBoolean(tuple[1]);
+					}
+					else if (tuple[0].equals("CBW")) {
+						commitBatchWindow = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("CBS")) {
+						commitBatchSize = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("SREAD")) {
+						serviceRead = line.substring(tuple[0].length() + 1);
+					}
+					else if (tuple[0].equals("SWRITE")) {
+						serviceWrite = line.substring(tuple[0].length() + 1);
+					}
+					else if (tuple[0].equals("SAUTH")) {
+						serviceAuth = line.substring(tuple[0].length() + 1);
+					}
+					else if (tuple[0].equals("SINTEG")) {
+						serviceIntegrity = line.substring(tuple[0].length() + 1);
+					}
+					else if (tuple[0].equals("DISK")) {
+						diskSlots = Integer.parseInt(tuple[1]);
+					}
+					else if (tuple[0].equals("CPU")) {
+						cpuSlots = Integer.parseInt(tuple[1]);
+					}
 				}
 				catch (Exception e) {
 					System.out.println("Error while parsing \"" + filename +
@@ -522,6 +739,131 @@ public class Robot {
 		return true;
 	}
 	
+	/**
+	 * Asks each Cloud Server for the use and queueing of its disk and CPU
+	 * slots during the run, and the Policy Server and its replicas for the
+	 * policy updates and requests they handled, to be written to the log
+	 *
+	 * @param list - The list of servers
+	 */
+	public static void collectServiceStats(ArrayList<ServerID> list) {
+		Socket socket;
+		ObjectOutputStream output;
+		ObjectInputStream input;
+		ArrayList<ServerID> servers = new ArrayList<ServerID>(list.subList(0, maxServers + 1));
+		servers.addAll(replicaList.subList(0, replicaCount));
+		for (int i = 0; i < servers.size(); i++) {
+			try {
+				socket = new Socket(servers.get(i).getAddress(), servers.get(i).getPort());
+				// Set up I/O streams with the server
+				output = new ObjectOutputStream(socket.getOutputStream());
+				input = new ObjectInputStream(socket.getInputStream());
+				output.writeObject(new Message("SERVICESTATS"));
+				Message msg = (Message)input.readObject();
+				serverStats.add(msg.theMessage);
+				socket.close();
+			}
+			catch(Exception e) {
+				System.err.println("Error collecting stats from server " + i + ": " + e.getMessage());
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+	
+	/**
+	 * Collects the disk and CPU service each Cloud Server spent on each
+	 * transaction, adding it to the transaction's server time. Service of an
+	 * attempt that was retried is also counted as aborted.
+	 *
+	 * @param list - The list of servers
+	 */
+	public static void collectTransactionService(ArrayList<ServerID> list) {
+		Socket socket;
+		ObjectOutputStream output;
+		ObjectInputStream input;
+		for (int i = 1; i <= maxServers; i++) {
+			try {
+				socket = new Socket(list.get(i).getAddress(), list.get(i).getPort());
+				// Set up I/O streams with the server
+				output = new ObjectOutputStream(socket.getOutputStream());
+				input = new ObjectInputStream(socket.getInputStream());
+				output.writeObject(new Message("TXNSERVICE"));
+				Message msg = (Message)input.readObject();
+				socket.close();
+				if (msg.theMessage.length() == 0) {
+					continue;
+				}
+				String pairs[] = msg.theMessage.split(" ");
+				for (int j = 0; j < pairs.length; j++) {
+					String pair[] = pairs[j].split(":");
+					// The servers know each attempt by its own number
+					int attemptNumber = Integer.parseInt(pair[0]);
+					int txnNumber = (attemptNumber - 1) % plannedTransactions + 1;
+					int attempt = (attemptNumber - 1) / plannedTransactions + 1;
+					if (attemptNumber >= 1 && txnNumber <= maxTransactions) {
+						TransactionData txn = TransactionLog.entry.get(txnNumber);
+						if (attempt < txn.getAttempts()) {
+							txn.addAbortedServerTime(Long.parseLong(pair[1]));
+						}
+						else {
+							txn.addServerTime(Long.parseLong(pair[1]));
+						}
+					}
+				}
+			}
+			catch(Exception e) {
+				System.err.println("Error collecting transaction service from server " + i + ": " + e.getMessage());
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+	
+	/**
+	 * Collects the spans traced by each Cloud Server, to be written with the
+	 * Robot's own to the trace file
+	 *
+	 * @param list - The list of servers
+	 */
+	public static void collectTraces(ArrayList<ServerID> list) {
+		Socket socket;
+		ObjectOutputStream output;
+		ObjectInputStream input;
+		for (int i = 1; i <= maxServers; i++) {
+			try {
+				socket = new Socket(list.get(i).getAddress(), list.get(i).getPort());
+				// Set up I/O streams with the server
+				output = new ObjectOutputStream(socket.getOutputStream());
+				input = new ObjectInputStream(socket.getInputStream());
+				output.writeObject(new Message("TRACEDUMP"));
+				Message msg = (Message)input.readObject();
+				traceEvents.add(msg.theMessage);
+				socket.close();
+			}
+			catch(Exception e) {
+				System.err.println("Error collecting trace from server " + i + ": " + e.getMessage());
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+	
+	/**
+	 * Shuts down the Policy Server's read replicas
+	 */
+	public static void shutdownReplicas() {
+		for (int i = 0; i < replicaCount; i++) {
+			try {
+				Socket sock = new Socket(replicaList.get(i).getAddress(),
+										 replicaList.get(i).getPort());
+				ObjectOutputStream output = new ObjectOutputStream(sock.getOutputStream());
+				output.writeObject(new Message("KILL"));
+				sock.close();
+			}
+			catch (Exception e) {
+				System.err.println("Error during KILL of replica " + (i + 1) + ": " + e.getMessage());
+			}
+		}
+	}
+	
 	/**
 	 * Loads the configuration file for servers, giving Robot knowledge of
 	 * server addresses as well as its own
@@ -613,6 +955,14 @@ public class Robot {
 		long avgFullTxn = 0l; // Start to finish
 		long avgTxnTime = 0l; // Reads and writes only
 		long avgCommitTime = 0l; // From commit call to finish
+		long avgQueueWait = 0l; // Waiting for disk/CPU slots at the coordinator
+		long avgStaleness = 0l; // Age of the leased policy version
+		long maxStaleness = 0l;
+		long totalRounds = 0l; // 2PVC and 2PV rounds run at commit
+		int maxRounds = 0;
+		long avgPhases[] = new long[WorkerThread.PHASES.length]; // Coordinator time by phase
+		long phasedFullTxn = 0l; // Start to finish, of the transactions with phases
+		int phased = 0; // Committed transactions, the only ones sending PH= in FIN
 		
 		// Create an output stream
 		try {			
@@ -628,62 +978,100 @@ public class Robot {
 		
 		// Write to file
 		try {
-			outputBuf.write("PARAMETERS:");
-			outputBuf.newLine();
-			outputBuf.write("PROOF=" + proof);
-			outputBuf.newLine();
-			outputBuf.write("VM=" + validationMode);
-			outputBuf.newLine();
-			outputBuf.write("PUSH=" + policyPush);
-			outputBuf.newLine();
-			outputBuf.write("MT=" + maxTransactions);
-			outputBuf.newLine();
-			outputBuf.write("OPMIN=" + minOperations);
-			outputBuf.newLine();
-			outputBuf.write("OPMAX=" + maxOperations);
-			outputBuf.newLine();
-			outputBuf.write("MS=" + maxServers);
+			writeParameters(outputBuf);
+
+			/*** Output metrics ***/
+			// All times are in microseconds
+			outputBuf.write("Time Unit=us");
 			outputBuf.newLine();
-			outputBuf.write("MD=" + maxDegree);
+			// Total time of run
+			outputBuf.write("Total Time=" +
+							(TransactionLog.entry.get(maxTransactions).getEndTime() - TransactionLog.entry.get(1).getFirstStartTime()));
 			outputBuf.newLine();
-			outputBuf.write("LMIN=" + latencyMin);
+			// Calculate averages over the transactions in the measurement window
+			ArrayList<TransactionData> window = measurementWindow();
+			int measured = window.size();
+			outputBuf.write("Window Start=" + (windowStart - TransactionLog.entry.get(1).getFirstStartTime()));
 			outputBuf.newLine();
-			outputBuf.write("LMAX=" + latencyMax);
+			outputBuf.write("Window Time=" + (windowEnd - windowStart));
 			outputBuf.newLine();
-			outputBuf.write("SLEEP=" + threadSleep);
+			outputBuf.write("Window Transactions=" + measured);
 			outputBuf.newLine();
-			outputBuf.write("ICSR=" + integrityCheckSuccessRate);
+			for (int i = 0; i < measured; i++) {
+				avgFullTxn += window.get(i).getDuration();
+				avgTxnTime += window.get(i).getTxnTime();
+				avgCommitTime += window.get(i).getCommitTime();
+				avgQueueWait += window.get(i).getQueueWait();
+				avgStaleness += window.get(i).getStaleness();
+				maxStaleness = Math.max(maxStaleness, window.get(i).getStaleness());
+				totalRounds += window.get(i).getRounds();
+				maxRounds = Math.max(maxRounds, window.get(i).getRounds());
+				if (window.get(i).isCommitted()) {
+					phasedFullTxn += window.get(i).getDuration();
+					phased++;
+					for (int j = 0; j < avgPhases.length; j++) {
+						avgPhases[j] += window.get(i).getPhase(j);
+					}
+				}
+			}
+			outputBuf.write("Avg Full Txn Time=" + (avgFullTxn / measured));
 			outputBuf.newLine();
-			outputBuf.write("LASR=" + localAuthSuccessRate);
+			outputBuf.write("Avg Txn Time=" + (avgTxnTime / measured));
 			outputBuf.newLine();
-			outputBuf.write("PMIN=" + policyUpdateMin);
+			outputBuf.write("Avg Commit Time=" + (avgCommitTime / measured));
 			outputBuf.newLine();
-			outputBuf.write("PMAX=" + policyUpdateMax);
+			outputBuf.write("Avg Queue Wait=" + (avgQueueWait / measured));
 			outputBuf.newLine();
-			outputBuf.write("RS1=" + randomSeed1);
+			outputBuf.write("Avg Staleness=" + (avgStaleness / measured));
 			outputBuf.newLine();
-			outputBuf.write("RS2=" + randomSeed2);
+			outputBuf.write("Max Staleness=" + maxStaleness);
 			outputBuf.newLine();
-			outputBuf.write("RS3=" + randomSeed3);
+			// Fractional, as most transactions take one round or none
+			outputBuf.write("Avg Rounds=" + ((double)totalRounds / measured));
 			outputBuf.newLine();
-
-			/*** Output metrics ***/
-			// Total time of run
-			outputBuf.write("Total Time=" +
-							(TransactionLog.entry.get(maxTransactions).getEndTime() - TransactionLog.entry.get(1).getStartTime()));
+			outputBuf.write("Max Rounds=" + maxRounds);
 			outputBuf.newLine();
-			// Calculate averages
-			for (int i = 1; i <= maxTransactions; i++) {
-				avgFullTxn += TransactionLog.entry.get(i).getDuration();
-				avgTxnTime += TransactionLog.entry.get(i).getTxnTime();
-				avgCommitTime += TransactionLog.entry.get(i).getCommitTime();
+			// Where the average committed transaction's time went, phases
+			// stacking up to its full time; OTHER is what no phase accounts
+			// for, e.g. the latency between the Robot and the coordinator.
+			// An abort sends no FIN, so aborted transactions have no phases.
+			long accounted = 0l;
+			for (int j = 0; j < avgPhases.length; j++) {
+				avgPhases[j] /= Math.max(phased, 1);
+				accounted += avgPhases[j];
 			}
-			outputBuf.write("Avg Full Txn Time=" + (avgFullTxn / maxTransactions));
-			outputBuf.newLine();
-			outputBuf.write("Avg Txn Time=" + (avgTxnTime / maxTransactions));
+			long fullTxn = Math.max(phasedFullTxn / Math.max(phased, 1), 1);
+			outputBuf.write("Phase " + proof + "/" + validationMode + " Committed Txn Time=" + fullTxn +
+							" over " + phased);
 			outputBuf.newLine();
-			outputBuf.write("Avg Commit Time=" + (avgCommitTime / maxTransactions));
+			for (int j = 0; j < avgPhases.length; j++) {
+				outputBuf.write("Phase " + proof + "/" + validationMode + " " + WorkerThread.PHASES[j] + "=" +
+								avgPhases[j] + " (" + (100 * avgPhases[j] / fullTxn) + "%)");
+				outputBuf.newLine();
+			}
+			outputBuf.write("Phase " + proof + "/" + validationMode + " OTHER=" + (fullTxn - accounted) +
+							" (" + (100 * (fullTxn - accounted) / fullTxn) + "%)");
 			outputBuf.newLine();
+			writeGoodput(outputBuf, window);
+			if (monitor != null) {
+				// The precision reached, measured as the transactions finished
+				outputBuf.write("Transactions Run=" + maxTransactions + " of " + plannedTransactions +
+								(monitor.isDone() ? " (target met)" : " (limit reached)"));
+				outputBuf.newLine();
+				String ciLines[] = monitor.summary().split("\n");
+				for (int i = 0; i < ciLines.length; i++) {
+					outputBuf.write(ciLines[i]);
+					outputBuf.newLine();
+				}
+			}
+			if (accounting) {
+				writeAccounting(outputBuf);
+			}
+			// Disk and CPU use of each server
+			for (int i = 0; i < serverStats.size(); i++) {
+				outputBuf.write(serverStats.get(i));
+				outputBuf.newLine();
+			}
 			// Full data output
 			if (threadSleep) {
 				for (int i = 1; i <= maxTransactions; i++) {
@@ -695,6 +1083,10 @@ public class Robot {
 									TransactionLog.entry.get(i).getDuration() + "\t" +
 									TransactionLog.entry.get(i).getTxnTime() + "\t" +
 									TransactionLog.entry.get(i).getCommitTime() + "\t" +
+									TransactionLog.entry.get(i).getQueueWait() + "\t" +
+									TransactionLog.entry.get(i).getStaleness() + "\t" +
+									TransactionLog.entry.get(i).getRounds() + "\t" +
+									TransactionLog.entry.get(i).getPhases() + "\t" +
 									TransactionLog.entry.get(i).getStatus());
 					outputBuf.newLine();
 				}
@@ -710,6 +1102,10 @@ public class Robot {
 									TransactionLog.entry.get(i).getTxnTime() + "\t" +
 									TransactionLog.entry.get(i).getCommitTime() + "\t" +
 									TransactionLog.entry.get(i).getSleepTime() + "\t" +
+									TransactionLog.entry.get(i).getQueueWait() + "\t" +
+									TransactionLog.entry.get(i).getStaleness() + "\t" +
+									TransactionLog.entry.get(i).getRounds() + "\t" +
+									TransactionLog.entry.get(i).getPhases() + "\t" +
 									TransactionLog.entry.get(i).getStatus());
 					outputBuf.newLine();
 				}
@@ -731,9 +1127,340 @@ public class Robot {
 			success = false;
 		}
 		
+		if (trace && !outputTrace("Trace_" + logID + ".json")) {
+			success = false;
+		}
+		
 		return success;
 	}
 	
+	/**
+	 * Sets the measurement window: it opens after the warm-up, i.e. the first
+	 * WUT transactions and the first WUD ms of the run, and closes after MWD
+	 * ms or CDD ms before the end of the run, whichever is first. Only the
+	 * transactions that started in the window count towards the statistics,
+	 * e.g. not those that paid for JIT compilation and the first connections.
+	 *
+	 * @return ArrayList<TransactionData> - the transactions in the window, or
+	 * all of them if the window is empty
+	 */
+	private static ArrayList<TransactionData> measurementWindow() {
+		ArrayList<TransactionData> window = new ArrayList<TransactionData>();
+		long runStart = TransactionLog.entry.get(1).getFirstStartTime();
+		long runEnd = 0l;
+		long firstAfterWarmup = Long.MAX_VALUE;
+		for (int i = 1; i <= maxTransactions; i++) {
+			runEnd = Math.max(runEnd, TransactionLog.entry.get(i).getEndTime());
+			if (i > warmupTransactions) {
+				firstAfterWarmup = Math.min(firstAfterWarmup, TransactionLog.entry.get(i).getFirstStartTime());
+			}
+		}
+		windowStart = Math.max(runStart + warmupDuration * 1000l, firstAfterWarmup);
+		windowEnd = runEnd - cooldownDuration * 1000l;
+		if (windowDuration > 0) {
+			windowEnd = Math.min(windowEnd, windowStart + windowDuration * 1000l);
+		}
+		for (int i = warmupTransactions + 1; i <= maxTransactions; i++) {
+			long start = TransactionLog.entry.get(i).getFirstStartTime();
+			if (start >= windowStart && start < windowEnd) {
+				window.add(TransactionLog.entry.get(i));
+			}
+		}
+		if (window.isEmpty()) {
+			System.out.println("No transaction started in the measurement window; measuring the whole run.");
+			windowStart = runStart;
+			windowEnd = runEnd;
+			for (int i = 1; i <= maxTransactions; i++) {
+				window.add(TransactionLog.entry.get(i));
+			}
+		}
+		return window;
+	}
+	
+	/**
+	 * Output the committed and aborted transactions of the measurement
+	 * window, the commits and transactions per second of its wall time, the
+	 * share of the Cloud Servers' disk and CPU service spent on
+	 * transactions that aborted, and the count, time and server time of the
+	 * aborts for each reason
+	 */
+	private static void writeGoodput(BufferedWriter outputBuf, ArrayList<TransactionData> window) throws IOException {
+		AbortReason reasons[] = AbortReason.values();
+		int abortCount[] = new int[reasons.length];
+		long abortTime[] = new long[reasons.length];
+		long abortServerTime[] = new long[reasons.length];
+		int commits = 0;
+		long serverTime = 0l;
+		long abortedServerTime = 0l;
+		for (int i = 0; i < window.size(); i++) {
+			TransactionData txn = window.get(i);
+			serverTime += txn.getServerTime();
+			if (txn.isCommitted()) {
+				commits++;
+				abortedServerTime += txn.getAbortedServerTime(); // Its retried attempts
+			}
+			else {
+				// An attempt that broke off with an error has no reason
+				int r = (txn.getAbortReason() != null ? txn.getAbortReason() : AbortReason.OTHER).ordinal();
+				abortCount[r]++;
+				abortTime[r] += txn.getDuration();
+				abortServerTime[r] += txn.getServerTime();
+				abortedServerTime += txn.getServerTime();
+			}
+		}
+		double seconds = Math.max(windowEnd - windowStart, 1) / 1000000.0;
+		outputBuf.write("Commits=" + commits);
+		outputBuf.newLine();
+		outputBuf.write("Aborts=" + (window.size() - commits));
+		outputBuf.newLine();
+		outputBuf.write("Goodput=" + String.format("%.2f", commits / seconds) + " commits/s");
+		outputBuf.newLine();
+		outputBuf.write("Throughput=" + String.format("%.2f", window.size() / seconds) + " txns/s");
+		outputBuf.newLine();
+		// Service spent on aborted work is lost to the transactions that committed
+		outputBuf.write("Aborted Server Time=" + abortedServerTime + " (" +
+						(100 * abortedServerTime / Math.max(serverTime, 1)) + "% of " + serverTime + ")");
+		outputBuf.newLine();
+		for (int r = 0; r < reasons.length; r++) {
+			if (abortCount[r] > 0) {
+				outputBuf.write("Abort " + reasons[r] + "=" + abortCount[r] +
+								" Avg Time=" + (abortTime[r] / abortCount[r]) +
+								" Avg Server Time=" + (abortServerTime[r] / abortCount[r]));
+				outputBuf.newLine();
+			}
+		}
+		if (retryAttempts > 1) {
+			writeRetries(outputBuf, window);
+		}
+	}
+	
+	/**
+	 * Output the attempts that retries added, i.e. the extra load they put on
+	 * the servers, and the time from the start of each transaction's first
+	 * attempt to the end of its last
+	 */
+	private static void writeRetries(BufferedWriter outputBuf, ArrayList<TransactionData> window) throws IOException {
+		long attempts = 0l;
+		int retriedCommits = 0;
+		long avgEndToEnd = 0l;
+		long maxEndToEnd = 0l;
+		long commitEndToEnd = 0l;
+		int commits = 0;
+		for (int i = 0; i < window.size(); i++) {
+			TransactionData txn = window.get(i);
+			attempts += txn.getAttempts();
+			avgEndToEnd += txn.getEndToEndTime();
+			maxEndToEnd = Math.max(maxEndToEnd, txn.getEndToEndTime());
+			if (txn.isCommitted()) {
+				commits++;
+				commitEndToEnd += txn.getEndToEndTime();
+				if (txn.getAttempts() > 1) {
+					retriedCommits++;
+				}
+			}
+		}
+		outputBuf.write("Attempts=" + attempts + " (" +
+						(100 * (attempts - window.size()) / window.size()) + "% more than transactions)");
+		outputBuf.newLine();
+		outputBuf.write("Retried Commits=" + retriedCommits);
+		outputBuf.newLine();
+		outputBuf.write("Avg End-to-End Time=" + (avgEndToEnd / window.size()));
+		outputBuf.newLine();
+		if (commits > 0) {
+			outputBuf.write("Avg End-to-End Commit Time=" + (commitEndToEnd / commits));
+			outputBuf.newLine();
+		}
+		outputBuf.write("Max End-to-End Time=" + maxEndToEnd);
+		outputBuf.newLine();
+	}
+	
+	/**
+	 * Output the CPU time and allocation of the Cloud Servers' workers,
+	 * summed from their ACCT_ counts, per transaction and per committed
+	 * transaction, so that the cost of the proof can be compared across runs.
+	 * The CPU time leaves out the spinning that ends each simulated wait.
+	 */
+	private static void writeAccounting(BufferedWriter outputBuf) throws IOException {
+		long coordCpu = 0l, coordAlloc = 0l, partCpu = 0l, partAlloc = 0l;
+		for (int i = 0; i < serverStats.size(); i++) {
+			String statSplit[] = serverStats.get(i).split(" ");
+			for (int j = 0; j < statSplit.length; j++) {
+				String pair[] = statSplit[j].split("=");
+				if (pair[0].equals("ACCT_COORD_CPU")) {
+					coordCpu += Long.parseLong(pair[1]);
+				}
+				else if (pair[0].equals("ACCT_COORD_ALLOC")) {
+					coordAlloc += Long.parseLong(pair[1]);
+				}
+				else if (pair[0].equals("ACCT_PART_CPU")) {
+					partCpu += Long.parseLong(pair[1]);
+				}
+				else if (pair[0].equals("ACCT_PART_ALLOC")) {
+					partAlloc += Long.parseLong(pair[1]);
+				}
+			}
+		}
+		int commits = 0;
+		for (int i = 1; i <= maxTransactions; i++) {
+			if (TransactionLog.entry.get(i).isCommitted()) {
+				commits++;
+			}
+		}
+		String label = "Cost " + proof + "/" + validationMode + " ";
+		outputBuf.write(label + "CPU per Txn=" + ((coordCpu + partCpu) / maxTransactions) +
+						" (coordinator " + (coordCpu / maxTransactions) +
+						", participants " + (partCpu / maxTransactions) + ", wait spin excluded)");
+		outputBuf.newLine();
+		outputBuf.write(label + "Alloc KB per Txn=" + ((coordAlloc + partAlloc) / 1024 / maxTransactions) +
+						" (coordinator " + (coordAlloc / 1024 / maxTransactions) +
+						", participants " + (partAlloc / 1024 / maxTransactions) + ")");
+		outputBuf.newLine();
+		// Aborted transactions' work is charged to the ones that committed
+		if (commits > 0) {
+			outputBuf.write(label + "CPU per Commit=" + ((coordCpu + partCpu) / commits));
+			outputBuf.newLine();
+			outputBuf.write(label + "Alloc KB per Commit=" + ((coordAlloc + partAlloc) / 1024 / commits));
+			outputBuf.newLine();
+		}
+	}
+	
+	/**
+	 * Output the spans of every process in the Chrome trace event format
+	 *
+	 * @param filename - The trace file
+	 */
+	private static boolean outputTrace(String filename) {
+		try {
+			BufferedWriter outputBuf = new BufferedWriter(new FileWriter(filename));
+			outputBuf.write("{\"traceEvents\":[");
+			outputBuf.write(Tracer.dump());
+			for (int i = 0; i < traceEvents.size(); i++) {
+				outputBuf.write(",");
+				outputBuf.newLine();
+				outputBuf.write(traceEvents.get(i));
+			}
+			outputBuf.write("]}");
+			outputBuf.newLine();
+			outputBuf.close();
+		}
+		catch(IOException ioe) {
+			System.out.println("IOException while writing the trace file.");
+			ioe.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the parameters of the simulation to a log file
+	 */
+	private static void writeParameters(BufferedWriter outputBuf) throws IOException {
+		outputBuf.write("PARAMETERS:");
+		outputBuf.newLine();
+		outputBuf.write("PROOF=" + proof);
+		outputBuf.newLine();
+		outputBuf.write("VM=" + validationMode);
+		outputBuf.newLine();
+		outputBuf.write("PUSH=" + policyPush);
+		outputBuf.newLine();
+		outputBuf.write("MT=" + plannedTransactions);
+		outputBuf.newLine();
+		outputBuf.write("OPMIN=" + minOperations);
+		outputBuf.newLine();
+		outputBuf.write("OPMAX=" + maxOperations);
+		outputBuf.newLine();
+		outputBuf.write("MS=" + maxServers);
+		outputBuf.newLine();
+		outputBuf.write("MD=" + maxDegree);
+		outputBuf.newLine();
+		outputBuf.write("LMIN=" + latencyMin);
+		outputBuf.newLine();
+		outputBuf.write("LMAX=" + latencyMax);
+		outputBuf.newLine();
+		outputBuf.write("SLEEP=" + threadSleep);
+		outputBuf.newLine();
+		outputBuf.write("TW=" + timerWheel);
+		outputBuf.newLine();
+		outputBuf.write("SUB=" + policySubscribe);
+		outputBuf.newLine();
+		outputBuf.write("SF=" + singleFlight);
+		outputBuf.newLine();
+		outputBuf.write("SFW=" + singleFlightWindow);
+		outputBuf.newLine();
+		outputBuf.write("LEASE=" + policyLease);
+		outputBuf.newLine();
+		outputBuf.write("REPLICA=" + replicaCount);
+		outputBuf.newLine();
+		outputBuf.write("GOSSIP=" + gossip);
+		outputBuf.newLine();
+		outputBuf.write("PREPROVE=" + preprove);
+		outputBuf.newLine();
+		outputBuf.write("HINT=" + convergeHint);
+		outputBuf.newLine();
+		outputBuf.write("TRACE=" + trace);
+		outputBuf.newLine();
+		outputBuf.write("ACCOUNTING=" + accounting);
+		outputBuf.newLine();
+		outputBuf.write("SAMPLE=" + sampleInterval);
+		outputBuf.newLine();
+		outputBuf.write("WUT=" + warmupTransactions);
+		outputBuf.newLine();
+		outputBuf.write("WUD=" + warmupDuration);
+		outputBuf.newLine();
+		outputBuf.write("MWD=" + windowDuration);
+		outputBuf.newLine();
+		outputBuf.write("CDD=" + cooldownDuration);
+		outputBuf.newLine();
+		outputBuf.write("CIT=" + ciTarget);
+		outputBuf.newLine();
+		outputBuf.write("CIL=" + ciLevel);
+		outputBuf.newLine();
+		outputBuf.write("RETRY=" + retryAttempts);
+		outputBuf.newLine();
+		outputBuf.write("RBASE=" + retryBase);
+		outputBuf.newLine();
+		outputBuf.write("RMAX=" + retryMax);
+		outputBuf.newLine();
+		outputBuf.write("RON=" + retryOn);
+		outputBuf.newLine();
+		outputBuf.write("TOPO=" + (topologyFile == null ? "none" : topologyFile));
+		outputBuf.newLine();
+		outputBuf.write("ICSR=" + integrityCheckSuccessRate);
+		outputBuf.newLine();
+		outputBuf.write("LASR=" + localAuthSuccessRate);
+		outputBuf.newLine();
+		outputBuf.write("PMIN=" + policyUpdateMin);
+		outputBuf.newLine();
+		outputBuf.write("PMAX=" + policyUpdateMax);
+		outputBuf.newLine();
+		outputBuf.write("PCW=" + pushWindow);
+		outputBuf.newLine();
+		outputBuf.write("RS1=" + randomSeed1);
+		outputBuf.newLine();
+		outputBuf.write("RS2=" + randomSeed2);
+		outputBuf.newLine();
+		outputBuf.write("RS3=" + randomSeed3);
+		outputBuf.newLine();
+		outputBuf.write("CB=" + commitBatch);
+		outputBuf.newLine();
+		outputBuf.write("CBW=" + commitBatchWindow);
+		outputBuf.newLine();
+		outputBuf.write("CBS=" + commitBatchSize);
+		outputBuf.newLine();
+		outputBuf.write("SREAD=" + serviceRead);
+		outputBuf.newLine();
+		outputBuf.write("SWRITE=" + serviceWrite);
+		outputBuf.newLine();
+		outputBuf.write("SAUTH=" + serviceAuth);
+		outputBuf.newLine();
+		outputBuf.write("SINTEG=" + serviceIntegrity);
+		outputBuf.newLine();
+		outputBuf.write("DISK=" + diskSlots);
+		outputBuf.newLine();
+		outputBuf.write("CPU=" + cpuSlots);
+		outputBuf.newLine();
+	}
+	
 	/**
      * Output a file if an error occurs.
      */
@@ -773,44 +1500,8 @@ public class Robot {
 			outputBuf.newLine();
 			outputBuf.write(reason);
 			outputBuf.newLine();
-			outputBuf.write("PARAMETERS:");
-			outputBuf.newLine();
-			outputBuf.write("PROOF=" + proof);
-			outputBuf.newLine();
-			outputBuf.write("VM=" + validationMode);
-			outputBuf.newLine();
-			outputBuf.write("PUSH=" + policyPush);
-			outputBuf.newLine();
-			outputBuf.write("MT=" + maxTransactions);
-			outputBuf.newLine();
-			outputBuf.write("OPMIN=" + minOperations);
-			outputBuf.newLine();
-			outputBuf.write("OPMAX=" + maxOperations);
-			outputBuf.newLine();
-			outputBuf.write("MS=" + maxServers);
-			outputBuf.newLine();
-			outputBuf.write("MD=" + maxDegree);
-			outputBuf.newLine();
-			outputBuf.write("LMIN=" + latencyMin);
-			outputBuf.newLine();
-			outputBuf.write("LMAX=" + latencyMax);
-			outputBuf.newLine();
-			outputBuf.write("SLEEP=" + threadSleep);
-			outputBuf.newLine();
-			outputBuf.write("ICSR=" + integrityCheckSuccessRate);
-			outputBuf.newLine();
-			outputBuf.write("LASR=" + localAuthSuccessRate);
-			outputBuf.newLine();
-			outputBuf.write("PMIN=" + policyUpdateMin);
-			outputBuf.newLine();
-			outputBuf.write("PMAX=" + policyUpdateMax);
-			outputBuf.newLine();
-			outputBuf.write("RS1=" + randomSeed1);
-			outputBuf.newLine();
-			outputBuf.write("RS2=" + randomSeed2);
-			outputBuf.newLine();
-			outputBuf.write("RS3=" + randomSeed3);
-			outputBuf.newLine();		}
+			writeParameters(outputBuf);
+		}
 		catch(IOException ioe) {
 			System.out.println("IOException while writing to output file.");
 			ioe.printStackTrace();
@@ -851,6 +1542,7 @@ public class Robot {
 				e.printStackTrace(System.err);
 			}
 		}
+		shutdownReplicas();
 		
 		
 		return success;
@@ -10,10 +10,12 @@
 
 import java.lang.Thread;
 import java.net.Socket;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ConnectException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RobotThread implements Runnable {
 	private final int txnNumber;
@@ -21,12 +23,19 @@ public class RobotThread implements Runnable {
     private final String transactions;
 	private final String server;
 	private final int port;
-	private final int latencyMin;
-	private final int latencyMax;
+	private final Topology topology;
 	private final boolean threadSleep;
+	private final boolean timerWheel;
 	private final boolean verbose;
 	private Random generator;
 	private final long seed2;
+	private final RetryPolicy retry;
+	// Transactions running, committed and aborted, for the Robot's Sampler
+	public static AtomicInteger active = new AtomicInteger();
+	public static AtomicInteger committed = new AtomicInteger();
+	public static AtomicInteger aborted = new AtomicInteger();
+	public static ConvergenceMonitor monitor = null; // Early stopping, if CIT is set
+	public static int attemptStride = 0; // MT, the numbers taken by first attempts
 
 	/**
 	 * Constructor that sets up transaction communication
@@ -38,33 +47,77 @@ public class RobotThread implements Runnable {
 	 * @param String _server - The server name where the primary Transaction
 	 * Manager is located
 	 * @param int _port - The port number of the server
-	 * @param int _lMin - Minimum simulated latency
-	 * @param int _lMax - Maximum simulated latency
+	 * @param Topology _topology - Simulated latency of each link
 	 * @param boolean _threadSleep - Whether to Thread.sleep() for latency
+	 * @param boolean _timerWheel - Whether the TimerWheel delivers messages
+	 * after their latency instead of sleeping this thread
 	 * @param boolean _verbose - Whether to output each transaction status
+	 * @param RetryPolicy _retry - When to run an aborted transaction again
 	 */
-	public RobotThread(int _txnNumber, int _coordinator, String _transactions, String _server, int _port, int _lMin, int _lMax, boolean _threadSleep, boolean _verbose, long _seed2) {
+	public RobotThread(int _txnNumber, int _coordinator, String _transactions, String _server, int _port, Topology _topology, boolean _threadSleep, boolean _timerWheel, boolean _verbose, long _seed2, RetryPolicy _retry) {
 		coordinator = _coordinator;
 		txnNumber = _txnNumber;
 		transactions = _transactions;
 		server = _server;
 		port = _port;
-		latencyMin = _lMin;
-		latencyMax = _lMax;
+		topology = _topology;
 		threadSleep = _threadSleep;
+		timerWheel = _timerWheel;
 		verbose = _verbose;
 		seed2 = _seed2;
+		retry = _retry;
 	}
 
 	/**
 	 * run() is basically the main method of a thread. This thread
-	 * simply reads Message objects off of the socket.
+	 * runs the transaction, again after a backoff for as long as the
+	 * RetryPolicy allows when it aborts.
 	 */
 	public void run() {
+		active.incrementAndGet();
+		try {
+			// Seed Random for latency, pauses
+			generator = new Random(seed2);
+			int attempt = 1;
+			AbortReason reason = runAttempt(attempt);
+			while (reason != null && retry.shouldRetry(reason, attempt)) {
+				long backoff = retry.backoff(attempt, generator);
+				if (threadSleep) {
+					SimClock.sleepMicros(backoff);
+				}
+				else { // add amount to log entry
+					TransactionLog.entry.get(txnNumber).addSleepTime(backoff);
+				}
+				TransactionLog.entry.get(txnNumber).retry();
+				attempt++;
+				reason = runAttempt(attempt);
+			}
+		}
+		finally {
+			// Hand back the monitor's permit however the transaction ended
+			if (monitor != null) {
+				monitor.finished(TransactionLog.entry.get(txnNumber));
+			}
+			active.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Runs the transaction once, reading Message objects off of the socket
+	 *
+	 * @param attempt - The number of the attempt, from 1
+	 *
+	 * @return AbortReason - why the attempt aborted, null if it did not
+	 */
+	private AbortReason runAttempt(int attempt) {
+		AbortReason reason = null;
+		// The servers see each attempt as a new transaction, with its own
+		// seed and service accounting
+		int attemptNumber = attemptNumber(txnNumber, attempt);
 		try {
 			// Divide transaction into groups to process in chunks (i.e., all
 			// contiguous READs or WRITEs)
-			String queryGroups[] = transactions.split(";");
+			String queryGroups[] = renumber(transactions, attemptNumber).split(";");
 			int groupIndex = 0;
 
 			// Connect to the specified server
@@ -74,14 +127,16 @@ public class RobotThread implements Runnable {
 								   " connected to " + server + " on port " + port);
 			}
 			// Set up I/O streams with the server
-			final ObjectOutputStream output = new ObjectOutputStream(sock.getOutputStream());
+			final DelayedOutput output = new DelayedOutput(new ObjectOutputStream(sock.getOutputStream()));
 			final ObjectInputStream input = new ObjectInputStream(sock.getInputStream());
 			
-			// Seed Random for latency, pauses
-			generator = new Random(seed2);
-
-			// Set start time of transaction
-			TransactionLog.entry.get(txnNumber).setStartTime(new Date().getTime());
+			// Set start time of transaction, and of the first attempt
+			TransactionLog.entry.get(txnNumber).setStartTime(SimClock.micros());
+			if (attempt == 1) {
+				TransactionLog.entry.get(txnNumber).setFirstStartTime(TransactionLog.entry.get(txnNumber).getStartTime());
+			}
+			FlightEvents.TransactionExecute event = new FlightEvents.TransactionExecute();
+			event.begin();
 			
 			// Loop to send query qroups
 			while (groupIndex < queryGroups.length) {
@@ -89,16 +144,17 @@ public class RobotThread implements Runnable {
 
 				// If about to commit, record the time
 				if (queryGroups[groupIndex].charAt(0) == 'C') {
-					TransactionLog.entry.get(txnNumber).setCommitStartTime(new Date().getTime());
+					TransactionLog.entry.get(txnNumber).setCommitStartTime(SimClock.micros());
 				}
 				
-				// Send message after latencySleep()
-				latencySleep();
+				// Send message after the simulated latency
+				long sent = SimClock.micros();
 				msg = new Message(queryGroups[groupIndex]);
-				output.writeObject(msg);
+				sendWithLatency(output, msg);
 				
 				// Get response from WorkerThread
 				resp = (Message)input.readObject();
+				Tracer.span(queryGroups[groupIndex].charAt(0) == 'C' ? "COMMIT" : "QUERIES", attemptNumber, sent);
 				String respSplit[] = resp.theMessage.split(" ");
 
 				if (respSplit[0].equals("ACK")) {
@@ -106,11 +162,16 @@ public class RobotThread implements Runnable {
 				}
 				else if (respSplit[0].equals("COMMIT")) { // Successful commit
 					// Set the end time of the transaction
-					TransactionLog.entry.get(txnNumber).setEndTime(new Date().getTime());
+					TransactionLog.entry.get(txnNumber).setEndTime(SimClock.micros());
+					TransactionLog.entry.get(txnNumber).setCommitted();
+					committed.incrementAndGet();
 				}
 				else if (respSplit[0].equals("ABORT")) { // Unsuccessful transaction
 					TransactionLog.entry.get(txnNumber).setStatus(respSplit[0] + ": " + respSplit[1]);
-					TransactionLog.entry.get(txnNumber).setEndTime(new Date().getTime());
+					reason = AbortReason.parse(respSplit[1]);
+					TransactionLog.entry.get(txnNumber).setAbortReason(reason);
+					TransactionLog.entry.get(txnNumber).setEndTime(SimClock.micros());
+					aborted.incrementAndGet();
 					if (verbose) {
 						System.out.println("RobotThread: Transaction " + txnNumber + " " +
 										   TransactionLog.entry.get(txnNumber).getStatus());
@@ -123,9 +184,24 @@ public class RobotThread implements Runnable {
 					break;
 				}
 				else if (respSplit[0].equals("FIN")) {
-					// If there was not thread sleeping, get the time used by the TM
-					if (!threadSleep) {
-						TransactionLog.entry.get(txnNumber).addSleepTime(Integer.parseInt(respSplit[1]));
+					// Collect the KEY=value measurements of the coordinator
+					for (int i = 1; i < respSplit.length; i++) {
+						String pair[] = respSplit[i].split("=");
+						if (pair[0].equals("SLEEP")) { // Time used by the TM without thread sleeping
+							TransactionLog.entry.get(txnNumber).addSleepTime(Long.parseLong(pair[1]));
+						}
+						else if (pair[0].equals("QWAIT")) {
+							TransactionLog.entry.get(txnNumber).setQueueWait(Long.parseLong(pair[1]));
+						}
+						else if (pair[0].equals("STALE")) { // Age of the leased policy version
+							TransactionLog.entry.get(txnNumber).setStaleness(Long.parseLong(pair[1]));
+						}
+						else if (pair[0].equals("PH")) { // Coordinator time by phase
+							TransactionLog.entry.get(txnNumber).setPhases(pair[1]);
+						}
+						else if (pair[0].equals("ROUNDS")) { // 2PVC and 2PV rounds at commit
+							TransactionLog.entry.get(txnNumber).setRounds(Integer.parseInt(pair[1]));
+						}
 					}
 					if (verbose) {
 						System.out.println("RobotThread: Transaction " + txnNumber + " " +
@@ -144,47 +220,114 @@ public class RobotThread implements Runnable {
 				groupIndex++;
 			}
 			
+			Tracer.span("TXN " + txnNumber, attemptNumber,
+						TransactionLog.entry.get(txnNumber).getStartTime());
+			event.txn = attemptNumber;
+			event.server = Topology.ROBOT;
+			event.status = TransactionLog.entry.get(txnNumber).getStatus();
+			event.commit();
+			
 			// Send message to WorkerThread to release it
-			latencySleep();
 			Message msg = new Message("DONE");
-			output.writeObject(msg);
+			sendWithLatency(output, msg);
 			
-			// Close connection to server/worker thread
-			sock.close();
+			// Close connection to server/worker thread once DONE is delivered
+			output.close(sock);
 		}
 		catch (ConnectException ce) {
 			System.err.println(ce.getMessage() +
 							   ": Check server address and port number.");
 			ce.printStackTrace(System.err);
+			TransactionLog.entry.get(txnNumber).setStatus("ERROR");
 		}
 		catch (Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace(System.err);
+			if (!TransactionLog.entry.get(txnNumber).isCommitted()) {
+				TransactionLog.entry.get(txnNumber).setStatus("ERROR");
+			}
 		}
+		return reason;
 	}
 	
-	public void latencySleep() {
-		if (latencyMax > 0) { // There is artificial latency
-			int latency;
-			if (latencyMax == latencyMin) { // Fixed latency value
-				latency = latencyMax;
-			}
-			else { // Generate a random amount within range
-				latency = latencyMin + generator.nextInt(latencyMax - latencyMin);
+	/**
+	 * @param txnNumber - The transaction, from 1 to MT
+	 * @param attempt - The attempt, from 1
+	 *
+	 * @return int - the number the servers know the attempt by: the
+	 * transaction's own for the first attempt, then one MT higher for each
+	 * retry
+	 */
+	public static int attemptNumber(int txnNumber, int attempt) {
+		return txnNumber + (attempt - 1) * attemptStride;
+	}
+
+	/**
+	 * @param transaction - The transaction's queries, e.g. R 12 3 1;C 12;exit
+	 * @param number - The transaction number to give them
+	 *
+	 * @return String - the queries with their transaction number replaced
+	 */
+	private static String renumber(String transaction, int number) {
+		String groups[] = transaction.split(";");
+		String renumbered = "";
+		for (int i = 0; i < groups.length; i++) {
+			if (i > 0) {
+				renumbered += ";";
 			}
-			if (threadSleep) {
-				try {
-					// Sleep for <latency> ms
-					Thread.sleep(latency);
+			String queries[] = groups[i].split(",");
+			for (int j = 0; j < queries.length; j++) {
+				if (j > 0) {
+					renumbered += ",";
 				}
-				catch(Exception e) {
-					System.err.println("latencySleep() Error: " + e.getMessage());
-					e.printStackTrace(System.err);
+				String tokens[] = queries[j].split(" ");
+				// RSERV <server> and exit carry no transaction number
+				if (tokens.length > 1 && !tokens[0].equals("RSERV")) {
+					tokens[1] = "" + number;
+				}
+				for (int k = 0; k < tokens.length; k++) {
+					renumbered += (k > 0 ? " " : "") + tokens[k];
 				}
 			}
-			else { // add int amount to log entry
+		}
+		return renumbered;
+	}
+	
+	/**
+	 * Draws the simulated latency of one message to the coordinator
+	 *
+	 * @param bytes - The approximate size of the message
+	 *
+	 * @return int - the latency in us, 0 if there is no artificial latency
+	 */
+	public int nextLatency(int bytes) {
+		return topology.latency(Topology.ROBOT, coordinator, bytes, generator);
+	}
+	
+	public void latencySleep(int bytes) {
+		int latency = nextLatency(bytes);
+		if (latency > 0) { // There is artificial latency
+			if (threadSleep) {
+				// Wait for <latency> us
+				SimClock.sleepMicros(latency);
+			}
+			else { // add amount to log entry
 				TransactionLog.entry.get(txnNumber).addSleepTime(latency);
 			}
 		}
 	}
+	
+	/**
+	 * Sends a message after the simulated latency, either through the
+	 * TimerWheel (returning at once) or by sleeping first
+	 */
+	public void sendWithLatency(DelayedOutput output, Message msg) throws IOException {
+		if (timerWheel && threadSleep) {
+			output.send(msg, nextLatency(msg.theMessage.length()));
+		}
+		else {
+			latencySleep(msg.theMessage.length());
+			output.sendNow(msg);
+		}
+	}
 }
\ No newline at end of file
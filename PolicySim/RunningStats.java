@@ -0,0 +1,45 @@
+/**
+ * File: RunningStats.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * The mean and variance of a stream of values, updated one value at a time
+ * with Welford's method, which stays accurate over long runs where summing
+ * squares would not.
+ */
+
+public class RunningStats {
+	private long count = 0;
+	private double mean = 0.0;
+	private double m2 = 0.0; // Sum of squared differences from the mean
+
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return double - the sample variance, 0 for fewer than two values
+	 */
+	public double getVariance() {
+		return (count > 1) ? m2 / (count - 1) : 0.0;
+	}
+
+	/**
+	 * @param z - The normal quantile of the confidence level, e.g. 1.96 for 95%
+	 *
+	 * @return double - the half-width of the confidence interval of the mean
+	 */
+	public double halfWidth(double z) {
+		return (count > 0) ? z * Math.sqrt(getVariance() / count) : Double.MAX_VALUE;
+	}
+}
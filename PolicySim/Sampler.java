@@ -0,0 +1,86 @@
+/**
+ * File: Sampler.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * A thread that samples the state of its process every few milliseconds
+ * (SAMPLE) into a CSV time series, e.g. Samples_CloudServer1.csv, so that
+ * warm-up, policy update bursts and queueing collapse show up over the
+ * course of a run instead of being averaged away in the log. Each row
+ * starts with the SimClock time in us, so the series of all processes on
+ * one host line up.
+ */
+
+import java.lang.Thread;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class Sampler extends Thread {
+	private final String filename;
+	private final String header;
+	private final int interval; // ms
+	private final Source source;
+
+	/**
+	 * What a process samples
+	 */
+	public interface Source {
+		/**
+		 * @return String - the row's values after the time, comma separated
+		 */
+		public String sample();
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _filename - The CSV file, replaced if it exists
+	 * @param _header - The names of the columns after time_us
+	 * @param _interval - Time between samples in ms
+	 * @param _source - Takes each sample
+	 */
+	public Sampler(String _filename, String _header, int _interval, Source _source) {
+		super("Sampler");
+		filename = _filename;
+		header = _header;
+		interval = _interval;
+		source = _source;
+		setDaemon(true); // The process exits without waiting for it
+	}
+
+	public void run() {
+		BufferedWriter outputBuf = null;
+		try {
+			outputBuf = new BufferedWriter(new FileWriter(filename));
+			outputBuf.write("time_us," + header);
+			outputBuf.newLine();
+			long next = System.currentTimeMillis();
+			while (true) {
+				outputBuf.write(SimClock.micros() + "," + source.sample());
+				outputBuf.newLine();
+				// Servers are killed at the end of a run, so keep the file whole
+				outputBuf.flush();
+				// Hold the pace even when a sample or write runs long
+				next += interval;
+				long sleep = next - System.currentTimeMillis();
+				if (sleep > 0) {
+					Thread.sleep(sleep);
+				}
+			}
+		}
+		catch (InterruptedException ie) {
+			// Stopped
+		}
+		catch (IOException ioe) {
+			System.err.println("Error writing samples to " + filename + ": " + ioe.getMessage());
+		}
+		try {
+			if (outputBuf != null) {
+				outputBuf.close();
+			}
+		}
+		catch (IOException ioe) {
+			System.err.println("Error closing " + filename + ": " + ioe.getMessage());
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * File: ServiceSlots.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * A bounded resource of a CloudServer (e.g. its disk or CPU). Operations
+ * queue for one of a fixed number of slots, hold it for their service time
+ * and record how long they waited, so that a saturated server shows up as
+ * queueing delay.
+ */
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ServiceSlots {
+	private final String name;
+	private final int capacity;
+	private final Semaphore slots; // null when the resource is unlimited
+	private AtomicLong operations = new AtomicLong();
+	private AtomicLong serviceTime = new AtomicLong();
+	private AtomicLong queueWait = new AtomicLong();
+	private AtomicLong maxQueueWait = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _name - The name of the resource (e.g. DISK), for the summary
+	 * @param _capacity - The number of concurrent operations, 0 for no limit
+	 */
+	public ServiceSlots(String _name, int _capacity) {
+		name = _name;
+		capacity = _capacity;
+		if (capacity > 0) {
+			slots = new Semaphore(capacity, true); // FIFO queue
+		}
+		else {
+			slots = null;
+		}
+	}
+
+	/**
+	 * Queues for a slot and holds it for the service time
+	 *
+	 * @param service - The service time of the operation in us
+	 *
+	 * @return long - the time spent waiting for a slot in us
+	 */
+	public long use(long service) {
+		long wait = 0;
+		if (slots != null) {
+			long queued = SimClock.micros();
+			slots.acquireUninterruptibly();
+			wait = SimClock.micros() - queued;
+		}
+		try {
+			SimClock.sleepMicros(service);
+		}
+		finally {
+			if (slots != null) {
+				slots.release();
+			}
+		}
+		operations.incrementAndGet();
+		serviceTime.addAndGet(service);
+		queueWait.addAndGet(wait);
+		long max = maxQueueWait.get();
+		while (wait > max && !maxQueueWait.compareAndSet(max, wait)) {
+			max = maxQueueWait.get();
+		}
+		return wait;
+	}
+
+	public void reset() {
+		operations.set(0);
+		serviceTime.set(0);
+		queueWait.set(0);
+		maxQueueWait.set(0);
+	}
+
+	/**
+	 * @return String - e.g. DISK=<slots> DISK_OPS=<n> DISK_SVC=<us>
+	 * DISK_QWAIT=<us> DISK_QMAX=<us>
+	 */
+	public String summary() {
+		return name + "=" + (capacity > 0 ? "" + capacity : "unlimited") +
+			   " " + name + "_OPS=" + operations.get() +
+			   " " + name + "_SVC=" + serviceTime.get() +
+			   " " + name + "_QWAIT=" + queueWait.get() +
+			   " " + name + "_QMAX=" + maxQueueWait.get();
+	}
+}
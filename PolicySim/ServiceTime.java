@@ -0,0 +1,129 @@
+/**
+ * File: ServiceTime.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * The distribution of the service time of one kind of operation, as given in
+ * parameters.txt. Supported forms, all values in microseconds:
+ *   const <us>
+ *   uniform <min> <max>
+ *   exp <mean>
+ *   lognormal <median> <sigma>
+ *   file <filename>   (empirical: one value per line, drawn uniformly)
+ */
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class ServiceTime {
+	private final String type;
+	private final double a; // const value, uniform min, exp mean, lognormal median
+	private final double b; // uniform max, lognormal sigma
+	private long samples[]; // empirical values
+	private final String spec;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _type - const, uniform, exp, lognormal
+	 * @param _a - The first argument of the distribution
+	 * @param _b - The second argument of the distribution, if any
+	 */
+	public ServiceTime(String _type, double _a, double _b) {
+		type = _type;
+		a = _a;
+		b = _b;
+		if (type.equals("uniform")) {
+			spec = type + " " + (long)a + " " + (long)b;
+		}
+		else if (type.equals("lognormal")) {
+			spec = type + " " + (long)a + " " + b;
+		}
+		else {
+			spec = type + " " + (long)a;
+		}
+	}
+
+	/**
+	 * Parses a distribution from the tokens of a parameters.txt line
+	 *
+	 * @param tuple - The tokens of the line, e.g. {"SREAD", "exp", "2000"}
+	 *
+	 * @return ServiceTime - the distribution
+	 */
+	public static ServiceTime parse(String tuple[]) throws IOException {
+		String type = tuple[1].toLowerCase();
+		if (type.equals("const") || type.equals("exp")) {
+			return new ServiceTime(type, Double.parseDouble(tuple[2]), 0);
+		}
+		else if (type.equals("uniform") || type.equals("lognormal")) {
+			return new ServiceTime(type, Double.parseDouble(tuple[2]), Double.parseDouble(tuple[3]));
+		}
+		else if (type.equals("file")) {
+			return fromFile(tuple[2]);
+		}
+		throw new IllegalArgumentException("Unknown service time distribution: " + tuple[1]);
+	}
+
+	/**
+	 * Loads an empirical distribution from a file of values in us. Lines
+	 * starting with # are comments.
+	 */
+	private static ServiceTime fromFile(String filename) throws IOException {
+		ArrayList<Long> values = new ArrayList<Long>();
+		BufferedReader inputBuf = new BufferedReader(new FileReader(filename));
+		String line = inputBuf.readLine();
+		while (line != null) {
+			line = line.trim();
+			if (line.length() > 0 && line.charAt(0) != '#') {
+				values.add(Long.parseLong(line));
+			}
+			line = inputBuf.readLine();
+		}
+		inputBuf.close();
+		if (values.isEmpty()) {
+			throw new IOException("No values in " + filename);
+		}
+		ServiceTime time = new ServiceTime("file", 0, 0);
+		time.samples = new long[values.size()];
+		for (int i = 0; i < values.size(); i++) {
+			time.samples[i] = values.get(i);
+		}
+		return time;
+	}
+
+	/**
+	 * Draws a service time
+	 *
+	 * @param generator - The worker's Random, so runs stay repeatable
+	 *
+	 * @return long - the service time in us
+	 */
+	public long sample(Random generator) {
+		if (type.equals("const")) {
+			return (long)a;
+		}
+		else if (type.equals("uniform")) {
+			if (b > a) {
+				return (long)a + generator.nextInt((int)(b - a));
+			}
+			return (long)b;
+		}
+		else if (type.equals("exp")) {
+			return (long)(-a * Math.log(1.0 - generator.nextDouble()));
+		}
+		else if (type.equals("lognormal")) {
+			return (long)(a * Math.exp(b * generator.nextGaussian()));
+		}
+		else { // empirical
+			return samples[generator.nextInt(samples.length)];
+		}
+	}
+
+	public String toString() {
+		if (type.equals("file")) {
+			return "file (" + samples.length + " values)";
+		}
+		return spec;
+	}
+}
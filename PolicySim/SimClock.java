@@ -0,0 +1,65 @@
+/**
+ * File: SimClock.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Microsecond clock and waits for the simulated cost model. Timestamps come
+ * from System.nanoTime(), anchored to the wall clock once per process so that
+ * values from different processes on one host can be compared. Waits park
+ * the thread for the bulk of the time and spin for the last stretch, since
+ * Thread.sleep() cannot wait less than a millisecond. The spinning burns CPU
+ * on the waiting thread, so each thread's total is kept for the accounting
+ * to take out of its CPU time.
+ */
+
+import java.util.concurrent.locks.LockSupport;
+
+public class SimClock {
+	private static final long originNanos = System.nanoTime();
+	private static final long originMicros = System.currentTimeMillis() * 1000;
+	private static final long SPIN_NANOS = 50000; // spin for the final 50 us
+	// ns each thread has spun in sleepMicros()
+	private static final ThreadLocal<long[]> spun = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * @return long - the current time in microseconds since the epoch
+	 */
+	public static long micros() {
+		return originMicros + (System.nanoTime() - originNanos) / 1000;
+	}
+
+	/**
+	 * Waits for the given number of microseconds
+	 *
+	 * @param micros - The time to wait in us
+	 */
+	public static void sleepMicros(long micros) {
+		if (micros <= 0) {
+			return;
+		}
+		final long deadline = System.nanoTime() + micros * 1000;
+		long remaining = deadline - System.nanoTime();
+		while (remaining > SPIN_NANOS) {
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+			remaining = deadline - System.nanoTime();
+		}
+		long spinStart = System.nanoTime();
+		long now = spinStart;
+		while (now < deadline) {
+			// Spin, parking could overshoot by more than what is left
+			now = System.nanoTime();
+		}
+		spun.get()[0] += now - spinStart;
+	}
+
+	/**
+	 * @return long - the time the current thread has spun in sleepMicros()
+	 * so far in us, part of its CPU time that simulates a wait
+	 */
+	public static long spinMicros() {
+		return spun.get()[0] / 1000;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * File: TimerWheel.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * A hierarchical timer wheel used to deliver messages after their simulated
+ * latency without parking a thread per message. One daemon thread advances
+ * the wheel a tick at a time; a task is kept in the lowest level whose span
+ * covers its deadline and is cascaded down a level as the deadline nears.
+ * Tasks run on the wheel thread and must be short (e.g. writing one Message).
+ * Delays are in microseconds; the thread waits for work while the wheel is
+ * empty rather than ticking through idle time.
+ */
+
+import java.lang.Thread;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+public class TimerWheel extends Thread {
+	private static TimerWheel shared = null;
+	private static final int LEVELS = 4;
+	private static final int LEVEL0_BITS = 8; // 256 slots of one tick
+	private static final int LEVEL_BITS = 6; // 64 slots on each higher level
+	private final long tickMicros;
+	private final long startTime; // in us
+	private long currentTick = 0;
+	private int pending = 0; // timeouts on the wheel
+	private ArrayList<Timeout> slots[][];
+
+	/**
+	 * Returns the wheel shared by all senders in this process, starting it
+	 * on first use.
+	 *
+	 * @return TimerWheel - the shared wheel with a tick of 100 us
+	 */
+	public static synchronized TimerWheel getShared() {
+		if (shared == null) {
+			shared = new TimerWheel(100);
+			shared.start();
+		}
+		return shared;
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param _tickMicros - The resolution of the wheel in us
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(long _tickMicros) {
+		tickMicros = _tickMicros;
+		startTime = SimClock.micros();
+		slots = new ArrayList[LEVELS][];
+		for (int level = 0; level < LEVELS; level++) {
+			int size = 1 << (level == 0 ? LEVEL0_BITS : LEVEL_BITS);
+			slots[level] = new ArrayList[size];
+			for (int i = 0; i < size; i++) {
+				slots[level][i] = new ArrayList<Timeout>();
+			}
+		}
+		setDaemon(true);
+		setName("TimerWheel");
+	}
+
+	/**
+	 * Runs a task once the delay has passed. Returns at once.
+	 *
+	 * @param delay - The delay in us
+	 * @param task - The task to run on the wheel thread
+	 */
+	public synchronized void schedule(long delay, Runnable task) {
+		// Count from the clock rather than currentTick, which only moves a
+		// tick at a time, and round up so that a task never runs early
+		long now = SimClock.micros() - startTime;
+		long deadline = (now + delay + tickMicros - 1) / tickMicros;
+		if (pending == 0) {
+			// Nothing is due while the wheel is empty, so skip the idle ticks
+			// before placing the timeout relative to currentTick
+			currentTick = Math.max(currentTick, now / tickMicros);
+			notify(); // Wake the idle wheel thread
+		}
+		insert(new Timeout(Math.max(deadline, currentTick + 1), task));
+		pending++;
+	}
+
+	/**
+	 * Places a timeout in the lowest level whose span reaches its deadline
+	 */
+	private void insert(Timeout timeout) {
+		long ticks = timeout.deadline - currentTick;
+		int shift = LEVEL0_BITS;
+		if (ticks < (1L << shift)) {
+			slots[0][(int)(timeout.deadline & ((1 << LEVEL0_BITS) - 1))].add(timeout);
+			return;
+		}
+		for (int level = 1; level < LEVELS; level++) {
+			if (ticks < (1L << (shift + LEVEL_BITS)) || level == LEVELS - 1) {
+				// Deadlines past the top level are re-placed when they cascade
+				slots[level][(int)((timeout.deadline >> shift) & ((1 << LEVEL_BITS) - 1))].add(timeout);
+				return;
+			}
+			shift += LEVEL_BITS;
+		}
+	}
+
+	/**
+	 * Advances the wheel by one tick and returns the tasks that are due
+	 */
+	private synchronized ArrayList<Timeout> advance() throws InterruptedException {
+		while (pending == 0) {
+			wait();
+		}
+		currentTick++;
+		// Cascade from the top so that timeouts can fall through several levels
+		for (int level = LEVELS - 1; level >= 1; level--) {
+			int shift = LEVEL0_BITS + (level - 1) * LEVEL_BITS;
+			if ((currentTick & ((1L << shift) - 1)) == 0) {
+				int index = (int)((currentTick >> shift) & ((1 << LEVEL_BITS) - 1));
+				ArrayList<Timeout> cascading = slots[level][index];
+				slots[level][index] = new ArrayList<Timeout>();
+				for (int i = 0; i < cascading.size(); i++) {
+					insert(cascading.get(i));
+				}
+			}
+		}
+		int index = (int)(currentTick & ((1 << LEVEL0_BITS) - 1));
+		ArrayList<Timeout> due = slots[0][index];
+		slots[0][index] = new ArrayList<Timeout>();
+		pending -= due.size();
+		return due;
+	}
+
+	/**
+	 * run() is basically the main method of a thread. Waits for each tick and
+	 * runs the tasks that have come due, catching up if it falls behind.
+	 */
+	public void run() {
+		while (true) {
+			try {
+				ArrayList<Timeout> due = advance();
+				long wait = startTime + currentTick * tickMicros - SimClock.micros();
+				while (wait > 0) { // Wait for the tick, parking may return early
+					LockSupport.parkNanos(wait * 1000);
+					wait = startTime + currentTick * tickMicros - SimClock.micros();
+				}
+				for (int i = 0; i < due.size(); i++) {
+					try {
+						due.get(i).task.run();
+					}
+					catch (Exception e) {
+						System.err.println("TimerWheel task Error: " + e.getMessage());
+						e.printStackTrace(System.err);
+					}
+				}
+			}
+			catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A task and the tick it is due on
+	 */
+	class Timeout {
+		public final long deadline;
+		public final Runnable task;
+
+		public Timeout(long _deadline, Runnable _task) {
+			deadline = _deadline;
+			task = _task;
+		}
+	}
+}
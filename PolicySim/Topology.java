@@ -0,0 +1,174 @@
+/**
+ * File: Topology.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * The simulated network between the Robot, the Policy Server and the Cloud
+ * Servers. Each directed link may have its own latency distribution and an
+ * optional bandwidth; without a topology file every link falls back to the
+ * LMIN/LMAX range. Lines of the topology file have the form
+ *
+ *   <from> <to> <distribution> [bw <Mbit/s>]
+ *
+ * where <from> and <to> are server numbers (0 is the Policy Server), R for
+ * the Robot or * for any node, and <distribution> is written as for SREAD
+ * (e.g. "uniform 200 800" or "lognormal 40000 0.2"), in microseconds. A link
+ * without its own line uses the reverse direction's, then the wildcards.
+ * Messages on a link with a bandwidth are sent one after another, so they
+ * queue behind each other as on a real link.
+ */
+
+import java.io.*;
+import java.util.Hashtable;
+import java.util.Random;
+
+public class Topology {
+	public static final int ROBOT = -1;
+	public static final int ANY = -2;
+	private final int latencyMin;
+	private final int latencyMax;
+	private Hashtable<String, Link> links = new Hashtable<String, Link>();
+	// When each link in use is free again (us), a wildcard line stands for
+	// many links so this is kept per actual pair
+	private Hashtable<String, Long> busyUntil = new Hashtable<String, Long>();
+
+	/**
+	 * Constructor for a uniform network.
+	 *
+	 * @param _latencyMin - LMIN in us
+	 * @param _latencyMax - LMAX in us
+	 */
+	public Topology(int _latencyMin, int _latencyMax) {
+		latencyMin = _latencyMin;
+		latencyMax = _latencyMax;
+	}
+
+	/**
+	 * Loads a topology file
+	 *
+	 * @param filename - The topology file, or null for a uniform network
+	 * @param _latencyMin - LMIN in us, for links not in the file
+	 * @param _latencyMax - LMAX in us, for links not in the file
+	 *
+	 * @return Topology - the network
+	 */
+	public static Topology load(String filename, int _latencyMin, int _latencyMax) throws IOException {
+		Topology topology = new Topology(_latencyMin, _latencyMax);
+		if (filename == null) {
+			return topology;
+		}
+		BufferedReader inputBuf = new BufferedReader(new FileReader(filename));
+		String line = inputBuf.readLine();
+		while (line != null) {
+			line = line.trim();
+			if (line.length() > 0 && line.charAt(0) != '#') { // not a comment line
+				String tuple[] = line.split("\\s+");
+				int from = parseNode(tuple[0]);
+				int to = parseNode(tuple[1]);
+				// The distribution runs up to the optional bandwidth
+				int end = tuple.length;
+				double mbps = 0;
+				for (int i = 2; i < tuple.length - 1; i++) {
+					if (tuple[i].equals("bw")) {
+						mbps = Double.parseDouble(tuple[i + 1]);
+						end = i;
+					}
+				}
+				String dist[] = new String[end - 1];
+				dist[0] = "LINK";
+				System.arraycopy(tuple, 2, dist, 1, end - 2);
+				topology.links.put(from + ">" + to, new Link(ServiceTime.parse(dist), mbps));
+			}
+			line = inputBuf.readLine();
+		}
+		inputBuf.close();
+		return topology;
+	}
+
+	/**
+	 * @return boolean - true if every link uses LMIN/LMAX
+	 */
+	public boolean isUniform() {
+		return links.isEmpty();
+	}
+
+	private static int parseNode(String node) {
+		if (node.equalsIgnoreCase("R")) {
+			return ROBOT;
+		}
+		else if (node.equals("*")) {
+			return ANY;
+		}
+		return Integer.parseInt(node);
+	}
+
+	private Link find(int from, int to) {
+		String keys[] = {from + ">" + to, to + ">" + from,
+						 from + ">" + ANY, ANY + ">" + to,
+						 to + ">" + ANY, ANY + ">" + from,
+						 ANY + ">" + ANY};
+		for (int i = 0; i < keys.length; i++) {
+			Link link = links.get(keys[i]);
+			if (link != null) {
+				return link;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Draws the delay of one message on a link: any wait for the link, the
+	 * transmission time and the latency.
+	 *
+	 * @param from - The sending node
+	 * @param to - The receiving node
+	 * @param bytes - The approximate size of the message
+	 * @param generator - The sender's Random
+	 *
+	 * @return int - the delay in us
+	 */
+	public int latency(int from, int to, int bytes, Random generator) {
+		Link link = find(from, to);
+		if (link == null) { // Uniform LMIN/LMAX network
+			if (latencyMax > 0) { // There is artificial latency
+				if (latencyMax == latencyMin) { // Fixed latency value
+					return latencyMax;
+				}
+				else { // Generate a random amount within range
+					return latencyMin + generator.nextInt(latencyMax - latencyMin);
+				}
+			}
+			return 0;
+		}
+		return (int)(transmit(from + ">" + to, link.mbps, bytes) + link.latency.sample(generator));
+	}
+
+	/**
+	 * Queues a message behind those already being sent on the link
+	 *
+	 * @return long - us until the message is fully on the wire
+	 */
+	private synchronized long transmit(String pair, double mbps, int bytes) {
+		if (mbps <= 0) {
+			return 0;
+		}
+		long now = SimClock.micros();
+		Long busy = busyUntil.get(pair);
+		long start = (busy == null) ? now : Math.max(now, busy);
+		long done = start + (long)(bytes * 8 / mbps); // Mbit/s is bits per us
+		busyUntil.put(pair, done);
+		return done - now;
+	}
+
+	/**
+	 * A directed link with its latency distribution and bandwidth
+	 */
+	static class Link {
+		public final ServiceTime latency;
+		public final double mbps; // 0 for unlimited
+
+		public Link(ServiceTime _latency, double _mbps) {
+			latency = _latency;
+			mbps = _mbps;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * File: Tracer.java
+ * @author: Tucker Trainor <tmt33@pitt.edu>
+ *
+ * Records timed spans of transaction work (TRACE mode) for a timeline of a
+ * run in the Chrome trace event format, viewable in chrome://tracing or
+ * Perfetto. Each thread appends to its own buffer without locking; the
+ * buffers are only read when the spans are dumped at the end of the run.
+ * Times are SimClock microseconds, so the spans of all processes on one host
+ * line up.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class Tracer {
+	public static volatile boolean enabled = false;
+	private static int process = 0; // pid of this process in the trace
+	private static String processName = "";
+	private static volatile int generation = 0; // Advanced by reset()
+	private static ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+	private static final ThreadLocal<Buffer> local = new ThreadLocal<Buffer>();
+
+	/**
+	 * Names this process in the trace
+	 *
+	 * @param pid - A number unique among the traced processes
+	 * @param name - e.g. CloudServer 3
+	 */
+	public static void setProcess(int pid, String name) {
+		process = pid;
+		processName = name;
+	}
+
+	/**
+	 * Records a span ending now
+	 *
+	 * @param name - What was done, e.g. 2PV
+	 * @param txn - The transaction it was done for, 0 if not known yet
+	 * @param begin - When it began (us)
+	 */
+	public static void span(String name, int txn, long begin) {
+		if (enabled) {
+			span(name, txn, begin, SimClock.micros());
+		}
+	}
+
+	public static void span(String name, int txn, long begin, long end) {
+		if (!enabled) {
+			return;
+		}
+		Buffer buffer = local.get();
+		if (buffer == null || buffer.generation != generation) {
+			buffer = new Buffer(Thread.currentThread());
+			local.set(buffer);
+			buffers.add(buffer);
+		}
+		buffer.add(new Span(name, txn, begin, end));
+	}
+
+	/**
+	 * @return String - the spans recorded since the last reset as trace
+	 * events, separated by commas, to be placed in a traceEvents array
+	 */
+	public static String dump() {
+		StringBuilder events = new StringBuilder();
+		events.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + process +
+					  ",\"args\":{\"name\":\"" + processName + "\"}}");
+		for (Iterator<Buffer> it = buffers.iterator(); it.hasNext();) {
+			it.next().dump(events);
+		}
+		return events.toString();
+	}
+
+	/**
+	 * Drops every span recorded so far, e.g. at the start of a run
+	 */
+	public static void reset() {
+		generation++;
+		buffers.clear();
+	}
+
+	/**
+	 * One thread's spans. Only the owning thread adds to it; a reader takes
+	 * count before spans, and so sees every span up to count.
+	 */
+	static class Buffer {
+		public final int generation;
+		private final long tid;
+		private final String threadName;
+		private volatile Span spans[] = new Span[64];
+		private volatile int count = 0;
+		private volatile int txn = 0; // Last transaction the thread worked for
+
+		public Buffer(Thread owner) {
+			generation = Tracer.generation;
+			tid = owner.getId();
+			threadName = owner.getName();
+		}
+
+		public void add(Span span) {
+			Span current[] = spans;
+			if (count == current.length) {
+				current = Arrays.copyOf(current, current.length * 2);
+				spans = current;
+			}
+			current[count] = span;
+			count = count + 1; // Publishes the span
+			if (span.txn != 0) {
+				txn = span.txn;
+			}
+		}
+
+		public void dump(StringBuilder events) {
+			int n = count;
+			Span current[] = spans;
+			events.append(",{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + process +
+						  ",\"tid\":" + tid + ",\"args\":{\"name\":\"" + threadName + "\"}}");
+			for (int i = 0; i < n; i++) {
+				Span span = current[i];
+				// A worker learns its transaction number with its first query
+				int spanTxn = (span.txn != 0) ? span.txn : txn;
+				events.append(",{\"name\":\"" + span.name + "\",\"cat\":\"txn\",\"ph\":\"X\"" +
+							  ",\"ts\":" + span.begin + ",\"dur\":" + (span.end - span.begin) +
+							  ",\"pid\":" + process + ",\"tid\":" + tid +
+							  ",\"args\":{\"txn\":" + spanTxn + "}}");
+			}
+		}
+	}
+
+	static class Span {
+		public final String name;
+		public final int txn;
+		public final long begin; // us
+		public final long end;
+
+		public Span(String _name, int _txn, long _begin, long _end) {
+			name = _name;
+			txn = _txn;
+			begin = _begin;
+			end = _end;
+		}
+	}
+}
@@ -3,19 +3,27 @@
  * @author: Tucker Trainor <tmt33@pitt.edu>
  *
  * A class to store data pertaining to a transacton - its number, its query
- * string, its start and end times, its status
+ * string, its start and end times, its status. Times are in microseconds.
  */
 
-import java.util.Date;
-
 public class TransactionData {
 	private int transactionNumber;
 	private String transaction;
 	private long startTime;
 	private long commitStartTime = 0;
 	private	long endTime;
-	private int sleepTime;
+	private long sleepTime;
+	private long queueWait = 0; // waiting for disk/CPU slots at the coordinator
+	private long staleness = 0; // age of the leased policy version validated against
+	private int rounds = 0; // 2PVC and 2PV rounds run by the coordinator
+	private long phases[] = new long[WorkerThread.PHASES.length]; // coordinator time by phase
 	private String status;
+	private boolean committed = false; // true once the coordinator answered COMMIT
+	private AbortReason abortReason = null; // null unless aborted
+	private long serverTime = 0; // disk and CPU service at every server
+	private long abortedServerTime = 0; // the part spent on attempts that were retried
+	private long firstStartTime; // start of the first attempt
+	private int attempts = 1;
 	
 	/**
 	 * Constructor.
@@ -31,7 +39,7 @@ public class TransactionData {
 	}
 	
 	public void setStartTime() {
-		startTime = new Date().getTime();
+		startTime = SimClock.micros();
 	}
 	
 	public void setStartTime(long _startTime) {
@@ -39,7 +47,7 @@ public class TransactionData {
 	}
 	
 	public void setCommitStartTime() {
-		commitStartTime = new Date().getTime();
+		commitStartTime = SimClock.micros();
 	}
 	
 	public void setCommitStartTime(long _commitStartTime) {
@@ -47,17 +55,40 @@ public class TransactionData {
 	}
 	
 	public void setEndTime() {
-		endTime = new Date().getTime();
+		endTime = SimClock.micros();
 	}
 	
 	public void setEndTime(long _endTime) {
 		endTime = _endTime;
 	}
 	
-	public void addSleepTime(int sleepAmount) {
+	public void addSleepTime(long sleepAmount) {
 		sleepTime += sleepAmount;
 	}
 	
+	public void setQueueWait(long _queueWait) {
+		queueWait = _queueWait;
+	}
+	
+	public void setStaleness(long _staleness) {
+		staleness = _staleness;
+	}
+	
+	public void setRounds(int _rounds) {
+		rounds = _rounds;
+	}
+	
+	/**
+	 * @param _phases - The coordinator's time in each of WorkerThread.PHASES,
+	 * separated by colons as in PH= of FIN
+	 */
+	public void setPhases(String _phases) {
+		String times[] = _phases.split(":");
+		for (int i = 0; i < times.length && i < phases.length; i++) {
+			phases[i] = Long.parseLong(times[i]);
+		}
+	}
+	
 	public void setStatus(String _status) {
 		status = _status;
 	}
@@ -100,11 +131,110 @@ public class TransactionData {
 		return 0;
 	}
 	
-	public int getSleepTime() {
+	public long getSleepTime() {
 		return sleepTime;
 	}
 	
+	public long getQueueWait() {
+		return queueWait;
+	}
+	
+	public long getStaleness() {
+		return staleness;
+	}
+	
+	public int getRounds() {
+		return rounds;
+	}
+	
+	public long getPhase(int phase) {
+		return phases[phase];
+	}
+	
+	/**
+	 * @return String - the time in each phase, separated by colons
+	 */
+	public String getPhases() {
+		String times = "" + phases[0];
+		for (int i = 1; i < phases.length; i++) {
+			times += ":" + phases[i];
+		}
+		return times;
+	}
+	
 	public String getStatus() {
 		return status;
 	}
+	
+	public void setCommitted() {
+		committed = true;
+	}
+	
+	/**
+	 * @return boolean - true only if the coordinator answered COMMIT; an
+	 * attempt that aborted or broke off with an error did not commit
+	 */
+	public boolean isCommitted() {
+		return committed;
+	}
+	
+	public void setAbortReason(AbortReason _abortReason) {
+		abortReason = _abortReason;
+	}
+	
+	public AbortReason getAbortReason() {
+		return abortReason;
+	}
+	
+	public void setFirstStartTime(long _firstStartTime) {
+		firstStartTime = _firstStartTime;
+	}
+	
+	public long getFirstStartTime() {
+		return firstStartTime;
+	}
+	
+	/**
+	 * @return long - the time from the start of the first attempt to the end
+	 * of the last, backoffs included
+	 */
+	public long getEndToEndTime() {
+		return endTime - firstStartTime;
+	}
+	
+	/**
+	 * Starts another attempt of an aborted transaction. The times and status
+	 * then describe the new attempt; the server time keeps adding up.
+	 */
+	public void retry() {
+		attempts++;
+		status = "COMMIT";
+		committed = false;
+		abortReason = null;
+		commitStartTime = 0;
+	}
+	
+	public int getAttempts() {
+		return attempts;
+	}
+	
+	public void addServerTime(long time) {
+		serverTime += time;
+	}
+	
+	public long getServerTime() {
+		return serverTime;
+	}
+	
+	/**
+	 * @param time - Server time of an attempt that aborted and was retried
+	 */
+	public void addAbortedServerTime(long time) {
+		serverTime += time;
+		abortedServerTime += time;
+	}
+	
+	public long getAbortedServerTime() {
+		return abortedServerTime;
+	}
 }
\ No newline at end of file
@@ -21,18 +21,37 @@ public class WorkerThread extends Thread {
 	public CloudServer my_tm; // The Transaction Manager that called the thread
 	public SocketList sockList = new SocketList();
 	public ArrayList<QueryRecord> queryLog = new ArrayList<QueryRecord>();
+	public Hashtable<Integer, CommitBatcher.Vote> pendingVotes = new Hashtable<Integer, CommitBatcher.Vote>();
+	public int transactionNumber = 0; // set once a query is logged here
 	public int transactionPolicyVersion = 0;
-	public int totalSleepTime = 0; // used if my_tm.threadSleep == false
+	public long totalSleepTime = 0; // in us, used if my_tm.threadSleep == false
+	public int peer = Topology.ROBOT; // sender of the last message on our socket
 	public Random generator;
 	public boolean hasUpdated = false;
-	public final int READ_MIN = 1;
-	public final int READ_MAX = 3;
-	public final int WRITE_MIN = 12;
-	public final int WRITE_MAX = 20;
-	public final int AUTH_CHK_MIN = 1;
-	public final int AUTH_CHK_MAX = 3;
-	public final int INTEG_CHK_MIN = 1;
-	public final int INTEG_CHK_MAX = 3;
+	public long queueWait = 0; // us spent queueing for disk/CPU slots here
+	public long serviceTime = 0; // us of disk/CPU service for the transaction here
+	private long roundStart = 0; // When the current commit-phase round began (us)
+	// Time of this transaction by phase in us, reported as PH= in FIN. The
+	// phases do not overlap: passed query time excludes any other phase run
+	// while waiting, and round time is only spent on the round's messages.
+	public static final String PHASES[] = {"EXEC", "PQ", "POLICY", "PROOF", "INTEGRITY",
+										   "PTC", "RUNAUTHS", "2PV", "2PVC"};
+	public static final int PH_EXEC = 0;
+	public static final int PH_PQ = 1;
+	public static final int PH_POLICY = 2;
+	public static final int PH_PROOF = 3;
+	public static final int PH_INTEGRITY = 4;
+	public long phaseTime[] = new long[PHASES.length];
+	private int roundPhase = -1; // Phase of the current commit-phase round
+	private long roundLatency = 0; // Latency slept before the round's first request
+	private long roundEnd = 0; // When the last response of the round arrived (us)
+	public long policyStaleness = 0; // us, age of the oldest leased version used
+	public FlightEvents.TransactionExecute txnEvent = new FlightEvents.TransactionExecute();
+	private FlightEvents.CommitRound roundEvent = null;
+	private int rounds = 0; // Commit-phase rounds run as coordinator
+	private int roundParticipants = 0;
+	private long cpuStart = 0; // Thread CPU time in us when the worker started
+	private long allocStart = 0; // Bytes the thread had allocated by then
 
 	/**
 	 * Constructor that sets up the socket we'll chat over
@@ -81,9 +100,9 @@ public class WorkerThread extends Thread {
 
 			// Send query
 			msg = new Message(query);
-			latencySleep(); // Simulate latency to other server
-			sockList.get(otherServer).output.writeObject(msg);
+			sendWithLatency(sockList.get(otherServer).delayed, msg, otherServer); // Simulate latency to other server
 			msg = (Message)sockList.get(otherServer).input.readObject();
+			my_tm.hearPolicy(msg);
 			System.out.println("Server " + otherServer +
 							   " says: " + msg.theMessage +
 							   " for passed query " + query);
@@ -109,7 +128,14 @@ public class WorkerThread extends Thread {
 											   Integer.parseInt(query[2]),
 											   Integer.parseInt(query[3]),
 											   policyVersion);
-			queryLog.add(item);
+			synchronized (queryLog) {
+				queryLog.add(item);
+			}
+			// Make this worker reachable by transaction number
+			if (transactionNumber == 0) {
+				transactionNumber = item.getTransaction();
+				my_tm.registerTransaction(transactionNumber, this);
+			}
 			return true;
 		}
 		catch (Exception e) {
@@ -119,6 +145,236 @@ public class WorkerThread extends Thread {
 		return false;
 	}
 	
+	/**
+	 * @return QueryRecord[] - the queries logged so far, safe to read from
+	 * another thread
+	 */
+	public QueryRecord[] queryRecords() {
+		synchronized (queryLog) {
+			return queryLog.toArray(new QueryRecord[queryLog.size()]);
+		}
+	}
+	
+	/**
+	 * Removes this worker's transaction from the server's registry once the
+	 * worker is finished with it.
+	 */
+	public void releaseTransaction() {
+		if (transactionNumber != 0) {
+			my_tm.releaseTransaction(transactionNumber, this);
+			if (my_tm.accounts != null) {
+				// The coordinator's last message is the Robot's DONE
+				my_tm.accounts.add(peer == Topology.ROBOT,
+								   ResourceAccounting.cpuTime() - cpuStart,
+								   ResourceAccounting.allocatedBytes() - allocStart);
+			}
+			txnEvent.txn = transactionNumber;
+			txnEvent.server = my_tm.serverNumber;
+			txnEvent.commit();
+		}
+	}
+	
+	/**
+	 * Notes the worker thread's CPU time and allocation so far, so that
+	 * releaseTransaction() can account for what handling the transaction took
+	 */
+	public void startAccounting() {
+		if (my_tm.accounts != null) {
+			cpuStart = ResourceAccounting.cpuTime();
+			allocStart = ResourceAccounting.allocatedBytes();
+		}
+	}
+	
+	/**
+	 * Answers a commit-phase request from the coordinator, whether it arrived
+	 * on this worker's socket or in a batch from the coordinator's server.
+	 *
+	 * @param query - the request split on spaces, e.g. PTC <version>
+	 * @return String - the response to the coordinator
+	 */
+	public String answerCommitRequest(String query[]) {
+		String msgText = "ACK";
+		if (query[0].equals("RUNAUTHS")) { // Run authorizations on all queries
+			int version = Integer.parseInt(query[1]);
+			System.out.println("Running auth. on transaction " +
+							   queryLog.get(0).getTransaction() + 
+							   " queries using policy version " +
+							   version);
+			msgText = "TRUE";
+			for (int j = 0; j < queryLog.size(); j++) {
+				if (queryLog.get(j).getPolicy() != version) {
+					if (!checkLocalAuth(queryLog.get(j), version)) {
+						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
+										   " for transaction " + queryLog.get(j).getTransaction() +
+										   ", sequence " + queryLog.get(j).getSequence() +
+										   " with policy v. " + version +
+										   ": FAIL");
+						msgText = "FALSE"; // (authorization failed)
+					}
+					else {
+						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
+										   " for transaction " + queryLog.get(j).getTransaction() +
+										   ", sequence " + queryLog.get(j).getSequence() +
+										   " with policy v. " + version +
+										   ": PASS");
+						queryLog.get(j).setPolicy(version); // Update policy in log
+					}
+				}
+				else {
+					System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
+									   " for txn " + queryLog.get(j).getTransaction() +
+									   ", seq " + queryLog.get(j).getSequence() +
+									   " with policy v. " + version +
+									   ": ALREADY DONE");
+					my_tm.stats.proofSkipped();
+				}
+			}
+		}
+		else if (query[0].equals("PTC")) { // Prepare-to-Commit
+			if (my_tm.validationMode >= 0 && my_tm.validationMode <= 2) {
+				msgText = prepareToCommit(0); // No global version
+			}
+			else { // Uses a global version, pass to method
+				msgText = prepareToCommit(Integer.parseInt(query[1]));
+			}
+		}
+		return msgText;
+	}
+	
+	/**
+	 * Passes a query on as passQuery() does, timing how long the other
+	 * server takes to answer
+	 *
+	 * @param otherServer - The number of the server to pass to
+	 * @param query - The query that must be performed on another server
+	 *
+	 * @return String - the response from the other server
+	 */
+	public String timedPassQuery(int otherServer, String query) {
+		long began = SimClock.micros();
+		long inner = phaseTotal();
+		my_tm.stats.passQueryStarted();
+		String response = passQuery(otherServer, query);
+		long elapsed = SimClock.micros() - began;
+		my_tm.stats.passQuery(elapsed);
+		Tracer.span("PQ " + otherServer, transactionNumber, began);
+		// e.g. a 2PV round run on the answer is not query waiting
+		phaseTime[PH_PQ] += elapsed - (phaseTotal() - inner);
+		return response;
+	}
+	
+	/**
+	 * Sends a commit-phase request to a participant, either directly over the
+	 * participant socket or through the server's CommitBatcher.
+	 *
+	 * @param otherServer - The number of the participating server
+	 * @param request - The request, e.g. PTC <version>
+	 */
+	public void sendCommitRequest(int otherServer, String request) throws IOException {
+		long began = SimClock.micros();
+		if (roundPhase == -1) {
+			roundPhase = phaseOf(request.split(" ")[0]);
+		}
+		roundParticipants++;
+		if (my_tm.batcher.isEnabled() && transactionNumber != 0) {
+			pendingVotes.put(otherServer, my_tm.batcher.submit(otherServer,
+															   transactionNumber,
+															   request));
+		}
+		else if (usesTimerWheel()) {
+			sendWithLatency(sockList.get(otherServer).delayed, new Message(request), otherServer);
+		}
+		else { // The round's latency was slept in commitRoundLatency()
+			sockList.get(otherServer).delayed.sendNow(stamp(new Message(request)));
+		}
+		if (roundPhase != -1) {
+			phaseTime[roundPhase] += SimClock.micros() - began + roundLatency;
+			roundLatency = 0;
+		}
+	}
+	
+	/**
+	 * Receives the response to the last request sent with sendCommitRequest()
+	 *
+	 * @param otherServer - The number of the participating server
+	 * @return Message - the participant's response
+	 */
+	public Message receiveCommitResponse(int otherServer) throws Exception {
+		long began = SimClock.micros();
+		Message msg;
+		CommitBatcher.Vote vote = pendingVotes.remove(otherServer);
+		if (vote != null) {
+			msg = new Message(vote.await());
+		}
+		else {
+			msg = (Message)sockList.get(otherServer).input.readObject();
+			my_tm.hearPolicy(msg);
+		}
+		roundEnd = SimClock.micros();
+		if (roundEvent != null) {
+			roundEvent.end(); // The round lasts until its last response
+		}
+		my_tm.stats.commitResponse(roundEnd - roundStart);
+		if (roundPhase != -1) {
+			phaseTime[roundPhase] += roundEnd - began;
+		}
+		return msg;
+	}
+	
+	/**
+	 * Simulates latency ahead of a round of commit-phase requests, which are
+	 * then sent to all participants at once. Batched requests pay their
+	 * latency once per batch in the CommitBatcher, and with the timer wheel
+	 * each request is delivered after the latency of its own link instead.
+	 */
+	public void commitRoundLatency() {
+		endRound();
+		roundStart = SimClock.micros();
+		roundPhase = -1; // Known once the round's first request is sent
+		roundParticipants = 0;
+		rounds++;
+		roundEvent = new FlightEvents.CommitRound();
+		roundEvent.begin();
+		if ((!my_tm.batcher.isEnabled() || transactionNumber == 0) && !usesTimerWheel()) {
+			if (my_tm.topology.isUniform()) {
+				latencySleep(Topology.ANY, 0);
+			}
+			else { // The round lasts as long as its slowest link
+				int latency = 0;
+				for (Enumeration<Integer> socketList = sockList.keys(); socketList.hasMoreElements();) {
+					int serverNum = socketList.nextElement();
+					if (serverNum != 0) { // Don't count the Policy server
+						latency = Math.max(latency, nextLatency(serverNum, 0));
+					}
+				}
+				sleepFor(latency);
+			}
+		}
+		roundLatency = SimClock.micros() - roundStart;
+	}
+	
+	/**
+	 * Traces and records the last commit-phase round, from its start to its
+	 * last response, once it is over
+	 */
+	public void endRound() {
+		if (roundPhase != -1 && roundEnd >= roundStart) {
+			Tracer.span(PHASES[roundPhase], transactionNumber, roundStart, roundEnd);
+		}
+		if (roundPhase != -1 && roundEvent != null) {
+			roundEvent.txn = transactionNumber;
+			roundEvent.server = my_tm.serverNumber;
+			roundEvent.proof = my_tm.proof;
+			roundEvent.validationMode = my_tm.validationMode;
+			roundEvent.phase = PHASES[roundPhase];
+			roundEvent.round = rounds;
+			roundEvent.participants = roundParticipants;
+			roundEvent.commit();
+		}
+		roundEvent = null;
+		roundPhase = -1;
+	}
+	
 	/**
 	 * When the coordinator receives a request to COMMIT, it directs the flow
 	 * of the transaction to either a view consistency check or a global
@@ -172,7 +428,7 @@ public class WorkerThread extends Thread {
 								   " queries using policy version " +
 								   transactionPolicyVersion);
 				for (int j = 0; j < queryLog.size(); j++) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -205,7 +461,7 @@ public class WorkerThread extends Thread {
 									   " queries using policy version " +
 									   transactionPolicyVersion);
 					for (int j = 0; j < queryLog.size(); j++) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for transaction " + queryLog.get(j).getTransaction() +
 											   ", sequence " + queryLog.get(j).getSequence() +
@@ -247,7 +503,7 @@ public class WorkerThread extends Thread {
 									   " queries using policy version " +
 									   globalVersion);
 					for (int j = 0; j < queryLog.size(); j++) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for transaction " + queryLog.get(j).getTransaction() +
 											   ", sequence " + queryLog.get(j).getSequence() +
@@ -278,7 +534,7 @@ public class WorkerThread extends Thread {
 									   " queries using policy version " +
 									   transactionPolicyVersion);
 					for (int j = 0; j < queryLog.size(); j++) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for transaction " + queryLog.get(j).getTransaction() +
 											   ", sequence " + queryLog.get(j).getSequence() +
@@ -328,13 +584,12 @@ public class WorkerThread extends Thread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("PTC " + transactionPolicyVersion);
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "PTC " + transactionPolicyVersion);
 					}
 					catch (Exception e) {
 						System.err.println("PTC Call Error: " + e.getMessage());
@@ -350,7 +605,7 @@ public class WorkerThread extends Thread {
 			// Check coordinator's authorizations if integrity check was fine
 			if (integrityCheck()) {
 				for (int j = 0; j < queryLog.size(); j++) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -373,7 +628,7 @@ public class WorkerThread extends Thread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response, add policy version to ArrayList
 						if (msg.theMessage.indexOf("YES") != -1) {
 							if (my_tm.validationMode != 0) { // Not 2PC only
@@ -435,7 +690,7 @@ public class WorkerThread extends Thread {
 			if (integrityCheck()) {
 				if (my_tm.validationMode != 0) {
 					for (int j = 0; j < queryLog.size(); j++) {
-						if (!checkLocalAuth()) {
+						if (!checkLocalAuth(queryLog.get(j), transactionPolicyVersion)) {
 							System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 											   " for transaction " + queryLog.get(j).getTransaction() +
 											   ", sequence " + queryLog.get(j).getSequence() +
@@ -482,7 +737,7 @@ public class WorkerThread extends Thread {
 		
 		// Have coordinator's server call the policy server and retrieve the
 		// current global master policy version
-		int globalVersion = my_tm.callPolicyServer();
+		int globalVersion = globalPolicy();
 		// Force an update of the policy if necessary
 		if (globalVersion == transactionPolicyVersion && my_tm.policyPush != 0) {
 			globalVersion++;
@@ -501,13 +756,12 @@ public class WorkerThread extends Thread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("PTC " + globalVersion);
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "PTC " + globalVersion);
 					}
 					catch (Exception e) {
 						System.err.println("PTC Call Error: " + e.getMessage());
@@ -522,7 +776,7 @@ public class WorkerThread extends Thread {
 			// Run auths with global version if integrity okay
 			if (integrityOkay) {
 				for (int j = 0; j < queryLog.size(); j++) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -544,7 +798,7 @@ public class WorkerThread extends Thread {
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response
 						if (msg.theMessage.indexOf("ABORT") != -1) { // Policy inequality
 							consistencyOkay = false;
@@ -578,7 +832,7 @@ public class WorkerThread extends Thread {
 			}
 			// Run auths using global version
 			for (int j = 0; j < queryLog.size(); j++) {
-				if (!checkLocalAuth()) {
+				if (!checkLocalAuth(queryLog.get(j), globalVersion)) {
 					System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 									   " for transaction " + queryLog.get(j).getTransaction() +
 									   ", sequence " + queryLog.get(j).getSequence() +
@@ -617,14 +871,12 @@ public class WorkerThread extends Thread {
 				serverNum[counter] = socketList.nextElement();
 				counter++;
 			}
-			latencySleep(); // Simulate latency (before looping)
+			commitRoundLatency(); // Simulate latency (before looping)
 			// Send messages to all participants
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't call the Policy server
 					try {
-						msg = new Message("RUNAUTHS " + version);
-						// Send
-						sockList.get(serverNum[i]).output.writeObject(msg);
+						sendCommitRequest(serverNum[i], "RUNAUTHS " + version);
 					}
 					catch (Exception e) {
 						System.err.println("RUNAUTHS Call Error: " + e.getMessage());
@@ -639,7 +891,7 @@ public class WorkerThread extends Thread {
 							   version);
 			for (int j = 0; j < queryLog.size(); j++) {
 				if (queryLog.get(j).getPolicy() != version) {
-					if (!checkLocalAuth()) {
+					if (!checkLocalAuth(queryLog.get(j), version)) {
 						System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 										   " for transaction " + queryLog.get(j).getTransaction() +
 										   ", sequence " + queryLog.get(j).getSequence() +
@@ -662,13 +914,14 @@ public class WorkerThread extends Thread {
 									   ", seq " + queryLog.get(j).getSequence() +
 									   " with policy v. " + version +
 									   ": ALREADY DONE");
+					my_tm.stats.proofSkipped();
 				}
 			}
 			// Receive responses
 			for (int i = 0; i < sockList.size(); i++) {
 				if (serverNum[i] != 0) { // Don't listen for the Policy server
 					try {
-						msg = (Message)sockList.get(serverNum[i]).input.readObject();
+						msg = receiveCommitResponse(serverNum[i]);
 						// Check response
 						if (msg.theMessage.equals("FALSE")) {
 							authorizationsOkay = false;
@@ -690,7 +943,7 @@ public class WorkerThread extends Thread {
 							   " queries using policy version " +
 							   version);
 			for (int j = 0; j < queryLog.size(); j++) {
-				if (!checkLocalAuth()) {
+				if (!checkLocalAuth(queryLog.get(j), version)) {
 					System.out.println("Authorization of " + queryLog.get(j).getQueryType() +
 									   " for transaction " + queryLog.get(j).getTransaction() +
 									   ", sequence " + queryLog.get(j).getSequence() +
@@ -711,97 +964,146 @@ public class WorkerThread extends Thread {
 		return "COMMIT";
 	}
 	
-	public void databaseRead() {
-		if (my_tm.threadSleep) {
-			try {
-				// Sleep for a random period of time between READ_MIN ms and
-				// READ_MAX ms
-				if (READ_MAX > READ_MIN) {
-					Thread.sleep(READ_MIN + generator.nextInt(READ_MAX - READ_MIN));
-				}
-				else {
-					Thread.sleep(READ_MAX);
-				}
-			}
-			catch(Exception e) {
-				System.err.println("databaseRead() Sleep Error: " + e.getMessage());
-				e.printStackTrace(System.err);
+	/**
+	 * Gets the global policy version to validate against: the leased version
+	 * in LEASE mode, else a fresh one from the Policy Server
+	 *
+	 * @return int - the global policy version, 0 on failure
+	 */
+	public int globalPolicy() {
+		long began = SimClock.micros();
+		FlightEvents.PolicyFetch event = new FlightEvents.PolicyFetch();
+		event.begin();
+		int version;
+		if (my_tm.lease != null) {
+			event.leased = true;
+			PolicyLease.Grant grant = my_tm.lease.get();
+			long age = SimClock.micros() - grant.fetched;
+			if (age > policyStaleness) {
+				policyStaleness = age;
 			}
+			version = grant.version;
 		}
 		else {
-			if (READ_MAX > READ_MIN) {
-				totalSleepTime += READ_MIN + generator.nextInt(READ_MAX - READ_MIN);
-			}
-			else {
-				totalSleepTime += READ_MAX;
+			version = my_tm.callPolicyServer();
+		}
+		phaseTime[PH_POLICY] += SimClock.micros() - began;
+		Tracer.span("POLICY", transactionNumber, began);
+		event.server = my_tm.serverNumber;
+		event.requester = my_tm.serverNumber;
+		event.version = version;
+		event.commit();
+		return version;
+	}
+	
+	/**
+	 * @param name - A phase name, e.g. 2PV
+	 *
+	 * @return int - the index of the phase in PHASES, -1 if not a phase
+	 */
+	public static int phaseOf(String name) {
+		for (int i = 0; i < PHASES.length; i++) {
+			if (PHASES[i].equals(name)) {
+				return i;
 			}
 		}
+		return -1;
 	}
 	
-	public void databaseWrite() {
+	private long phaseTotal() {
+		long total = 0;
+		for (int i = 0; i < phaseTime.length; i++) {
+			total += phaseTime[i];
+		}
+		return total;
+	}
+	
+	/**
+	 * @return String - the time of each phase in us, in PHASES order and
+	 * separated by colons, for PH= in FIN
+	 */
+	public String phaseSummary() {
+		String summary = "" + phaseTime[0];
+		for (int i = 1; i < phaseTime.length; i++) {
+			summary += ":" + phaseTime[i];
+		}
+		return summary;
+	}
+	
+	/**
+	 * Spends the service time of one operation. With thread sleeping the
+	 * operation first queues for a slot of the server's resource; otherwise
+	 * the time is summed.
+	 *
+	 * @param slots - The server resource the operation uses
+	 * @param time - The service time distribution of the operation
+	 */
+	public void serviceWait(ServiceSlots slots, ServiceTime time) {
+		long service = time.sample(generator);
+		serviceTime += service;
 		if (my_tm.threadSleep) {
-			try {
-				// Sleep for a random period of time between WRITE_MIN ms and
-				// WRITE_MAX ms
-				if (WRITE_MAX > WRITE_MIN) {
-					Thread.sleep(WRITE_MIN + generator.nextInt(WRITE_MAX - WRITE_MIN));
-				}
-				else {
-					Thread.sleep(WRITE_MAX);
-				}
-			}
-			catch(Exception e) {
-				System.err.println("databaseWrite() Sleep Error: " + e.getMessage());
-				e.printStackTrace(System.err);
-			}
+			queueWait += slots.use(service);
 		}
 		else {
-			if (WRITE_MAX > WRITE_MIN) {
-				totalSleepTime += WRITE_MIN + generator.nextInt(WRITE_MAX - WRITE_MIN);
-			}
-			else {
-				totalSleepTime += WRITE_MAX;
-			}
+			totalSleepTime += service;
 		}
 	}
 	
+	public void databaseRead() {
+		long began = SimClock.micros();
+		serviceWait(my_tm.disk, my_tm.readTime);
+		phaseTime[PH_EXEC] += SimClock.micros() - began;
+		Tracer.span("READ", transactionNumber, began);
+	}
+	
+	public void databaseWrite() {
+		long began = SimClock.micros();
+		serviceWait(my_tm.disk, my_tm.writeTime);
+		phaseTime[PH_EXEC] += SimClock.micros() - began;
+		Tracer.span("WRITE", transactionNumber, began);
+	}
+	
 	/**
 	 * Checks the local policy for authorization to data
 	 *
 	 * @return boolean - true if authorization check comes back OK, else false
 	 */
 	public boolean checkLocalAuth() {
-		if (my_tm.threadSleep) {
-			try {
-				// Sleep for a random period of time between AUTH_CHK_MIN ms
-				// and AUTH_CHK_MAX ms
-				if (AUTH_CHK_MAX > AUTH_CHK_MIN) {
-					Thread.sleep(AUTH_CHK_MIN + generator.nextInt(AUTH_CHK_MAX - AUTH_CHK_MIN));
-				}
-				else {
-					Thread.sleep(AUTH_CHK_MAX);
-				}
-			}
-			catch(Exception e) {
-				System.err.println("checkLocalAuth() Sleep Error: " + e.getMessage());
-				e.printStackTrace(System.err);
-			}
-		}
-		else {
-			if (AUTH_CHK_MAX > AUTH_CHK_MIN) {
-				totalSleepTime += AUTH_CHK_MIN + generator.nextInt(AUTH_CHK_MAX - AUTH_CHK_MIN);
-			}
-			else {
-				totalSleepTime += AUTH_CHK_MAX;
-			}
-		}
+		long began = SimClock.micros();
+		FlightEvents.ProofEvaluation event = new FlightEvents.ProofEvaluation();
+		event.begin();
+		serviceWait(my_tm.cpu, my_tm.authTime);
+		phaseTime[PH_PROOF] += SimClock.micros() - began;
+		Tracer.span("PROOF", transactionNumber, began);
+		my_tm.stats.proof();
 		// Perform random success operation
+		boolean success = true;
 		if (my_tm.localAuthSuccessRate < 1.0) {
-			return coinToss(my_tm.localAuthSuccessRate);
+			success = coinToss(my_tm.localAuthSuccessRate);
 		}
-		else {
-			return true;
+		event.txn = transactionNumber;
+		event.server = my_tm.serverNumber;
+		event.success = success;
+		event.commit();
+		return success;
+	}
+	
+	/**
+	 * Checks the local policy for one of the transaction's queries. A proof a
+	 * ProofRefresher already failed with the same version stands, since
+	 * tossing again would give the query a second chance to pass.
+	 *
+	 * @param record - The query
+	 * @param version - The policy version the query is proven with
+	 *
+	 * @return boolean - true if authorization check comes back OK, else false
+	 */
+	public boolean checkLocalAuth(QueryRecord record, int version) {
+		if (record.failedWith(version)) {
+			my_tm.stats.proofSkipped();
+			return false;
 		}
+		return checkLocalAuth();
 	}
 	
 	/**
@@ -810,30 +1112,10 @@ public class WorkerThread extends Thread {
 	 * @return boolean - true if integrity check comes back OK, else false
 	 */
 	public boolean integrityCheck() {
-		if (my_tm.threadSleep) {
-			try {
-				// Sleep for a random period of time between INTEG_CHK_MIN ms and
-				// INTEG_CHK_MAX ms
-				if (INTEG_CHK_MAX > INTEG_CHK_MIN) {
-					Thread.sleep(INTEG_CHK_MIN + generator.nextInt(INTEG_CHK_MAX - INTEG_CHK_MIN));
-				}
-				else {
-					Thread.sleep(INTEG_CHK_MAX);
-				}
-			}
-			catch(Exception e) {
-				System.err.println("integrityCheck() Sleep Error: " + e.getMessage());
-				e.printStackTrace(System.err);
-			}
-		}
-		else {
-			if (INTEG_CHK_MAX > INTEG_CHK_MIN) {
-				totalSleepTime += INTEG_CHK_MIN + generator.nextInt(INTEG_CHK_MAX - INTEG_CHK_MIN);
-			}
-			else {
-				totalSleepTime += INTEG_CHK_MAX;
-			}
-		}
+		long began = SimClock.micros();
+		serviceWait(my_tm.cpu, my_tm.integrityTime);
+		phaseTime[PH_INTEGRITY] += SimClock.micros() - began;
+		Tracer.span("INTEGRITY", transactionNumber, began);
 		// Perform random success operation if necessary
 		if (my_tm.integrityCheckSuccessRate < 1.0) {
 			return coinToss(my_tm.integrityCheckSuccessRate);
@@ -850,31 +1132,75 @@ public class WorkerThread extends Thread {
 		return true;
 	}
 	
-	public void latencySleep() {
-		if (my_tm.latencyMax > 0) { // There is artificial latency
-			int latency;
-			if (my_tm.latencyMax == my_tm.latencyMin) { // Fixed latency value
-				latency = my_tm.latencyMax;
-			}
-			else { // Generate a random amount within range
-				latency = my_tm.latencyMin + generator.nextInt(my_tm.latencyMax - my_tm.latencyMin);
-			}
+	/**
+	 * Draws the simulated latency of one message from this server
+	 *
+	 * @param to - The receiving server, or Topology.ROBOT
+	 * @param bytes - The approximate size of the message
+	 *
+	 * @return int - the latency in us, 0 if there is no artificial latency
+	 */
+	public int nextLatency(int to, int bytes) {
+		return my_tm.topology.latency(my_tm.serverNumber, to, bytes, generator);
+	}
+	
+	public void latencySleep(int to, int bytes) {
+		sleepFor(nextLatency(to, bytes));
+	}
+	
+	public void sleepFor(int latency) {
+		if (latency > 0) { // There is artificial latency
 			if (my_tm.threadSleep) {
-				try {
-					// Sleep for <latency> ms
-					Thread.sleep(latency);
-				}
-				catch(Exception e) {
-					System.err.println("latencySleep() Error: " + e.getMessage());
-					e.printStackTrace(System.err);
-				}
+				// Wait for <latency> us
+				SimClock.sleepMicros(latency);
 			}
-			else { // add int amount to log entry
+			else { // add amount to log entry
 				totalSleepTime += latency;
 			}
 		}
 	}
 	
+	/**
+	 * @return boolean - true if latency is served by the TimerWheel
+	 */
+	public boolean usesTimerWheel() {
+		return my_tm.timerWheel && my_tm.threadSleep;
+	}
+	
+	/**
+	 * Stamps a message with this server and its policy version, which the
+	 * receiver hears as gossip
+	 *
+	 * @param msg - The message to send
+	 *
+	 * @return Message - the same message
+	 */
+	private Message stamp(Message msg) {
+		msg.sender = my_tm.serverNumber;
+		msg.senderPolicy = my_tm.getPolicy();
+		return msg;
+	}
+	
+	/**
+	 * Sends a message after the simulated latency. With the TimerWheel the
+	 * message is queued for delivery and this returns at once; otherwise the
+	 * thread sleeps through the latency before writing.
+	 *
+	 * @param out - The connection to send over
+	 * @param msg - The message to send
+	 * @param to - The receiving server, or Topology.ROBOT
+	 */
+	public void sendWithLatency(DelayedOutput out, Message msg, int to) throws IOException {
+		stamp(msg);
+		if (usesTimerWheel()) {
+			out.send(msg, nextLatency(to, msg.theMessage.length()));
+		}
+		else {
+			latencySleep(to, msg.theMessage.length());
+			out.sendNow(msg);
+		}
+	}
+	
 	/**
 	 * A class to store sockets between servers in order to reduce the number
 	 * of connections necessary during a transaction.
@@ -911,11 +1237,13 @@ public class WorkerThread extends Thread {
 		public Socket socket;
 		public ObjectOutputStream output;
 		public ObjectInputStream input;
+		public DelayedOutput delayed; // all writes go through here
 		
 		public SocketObject(Socket s, ObjectOutputStream oos, ObjectInputStream ois) {
 			socket = s;
 			output = oos;
 			input = ois;
+			delayed = new DelayedOutput(oos);
 		}
 	}
 }